@@ -0,0 +1,78 @@
+package com.jentfoo.file;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link DigestResult} as a map key, for both the 128 bit (two long) form and the 
+ * 256 bit (byte array) form.  Lookups are done with separate but equal instances, the same 
+ * as when a newly computed digest is matched against existing ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DigestResultBenchmark {
+  private static final int DIGEST_COUNT = 1024 * 16;
+  
+  @Param({"16", "32"})
+  public int digestLength;
+  
+  private DigestResult[] digests;
+  private DigestResult[] equalDigests;
+  private Map<DigestResult, Integer> digestMap;
+  
+  @Setup
+  public void setup() {
+    Random r = new Random(digestLength);
+    digests = new DigestResult[DIGEST_COUNT];
+    equalDigests = new DigestResult[DIGEST_COUNT];
+    digestMap = new HashMap<DigestResult, Integer>();
+    for (int i = 0; i < DIGEST_COUNT; i++) {
+      byte[] bytes = new byte[digestLength];
+      r.nextBytes(bytes);
+      digests[i] = DigestResult.fromBytes(bytes);
+      equalDigests[i] = DigestResult.fromBytes(bytes.clone());
+      digestMap.put(digests[i], i);
+    }
+  }
+  
+  @Benchmark
+  public void fromBytes(Blackhole bh) {
+    for (DigestResult dr : digests) {
+      bh.consume(DigestResult.fromBytes(dr.toBytes()));
+    }
+  }
+  
+  @Benchmark
+  public void hashCodeAndEquals(Blackhole bh) {
+    for (int i = 0; i < DIGEST_COUNT; i++) {
+      bh.consume(digests[i].hashCode() == equalDigests[i].hashCode() && 
+                   digests[i].equals(equalDigests[i]));
+    }
+  }
+  
+  @Benchmark
+  public void mapLookup(Blackhole bh) {
+    for (DigestResult dr : equalDigests) {
+      bh.consume(digestMap.get(dr));
+    }
+  }
+}
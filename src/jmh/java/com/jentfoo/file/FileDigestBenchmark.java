@@ -0,0 +1,84 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full digest of a single file, across file sizes, read strategies and hash 
+ * functions.  The file is read once during setup, so results reflect reading from the page 
+ * cache rather than from disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FileDigestBenchmark {
+  @Param({"4096", "1048576", "67108864"})
+  public int fileSize;
+  @Param({FileReaders.STRATEGY_STREAM, FileReaders.STRATEGY_CHANNEL, FileReaders.STRATEGY_MAPPED, 
+          FileReaders.STRATEGY_ASYNC})
+  public String readStrategy;
+  @Param({"SHA-256", "murmur3-128"})
+  public String hashFunction;
+  
+  private File file;
+  private DuplicateFileInspector inspector;
+  private HasherInterface hasher;
+  
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    file = File.createTempFile("jfaBench", ".bin");
+    byte[] buffer = new byte[1024 * 64];
+    Random r = new Random(fileSize);
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      int remaining = fileSize;
+      while (remaining > 0) {
+        r.nextBytes(buffer);
+        int length = Math.min(remaining, buffer.length);
+        out.write(buffer, 0, length);
+        remaining -= length;
+      }
+    } finally {
+      out.close();
+    }
+    
+    HashFunctionInterface hf = HashFunctions.makeHashFunction(hashFunction);
+    inspector = new DuplicateFileInspector(new PathTable(), null, 
+                                           FileReaders.makeReader(readStrategy, 
+                                                                  FileReaders.DEFAULT_BLOCK_SIZE), 
+                                           hf, DuplicateFileInspector.CONFIRM_NONE);
+    hasher = hf.makeHasher();
+    // warm the page cache
+    inspector.makeFileDigest(file, hasher);
+  }
+  
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+  
+  @Benchmark
+  public DigestResult makeFileDigest() throws IOException {
+    return inspector.makeFileDigest(file, hasher);
+  }
+}
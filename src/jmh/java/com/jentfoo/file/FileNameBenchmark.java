@@ -0,0 +1,118 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per file checks done on every crawled path, over a fixed set of paths shaped 
+ * like a home directory: mostly ordinary nested files, with some hidden directories and 
+ * some media files with release tags in their names.  Results are per path.  Name matching is 
+ * measured with the built in patterns, and with thousands of extra random patterns added.  
+ * Filter rules are measured the same way, with the extra patterns added as exclude rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FileNameBenchmark {
+  private static final int PATH_COUNT = 1024 * 8;
+  private static final String[] DIRECTORIES = { "home", "user", "Documents", "Pictures", "2019", 
+                                                "projects", "src", "main", "java", "Videos", 
+                                                "Music", "archive", "backup", ".cache", 
+                                                ".config", "..", "shows", "node_modules" };
+  private static final String[] NAMES = { "report.pdf", "IMG_2041.jpg", "notes.txt", 
+                                          "Some.Show.S01E02.HDTV.x264-2HD.mkv", "track01.flac", 
+                                          "Movie.2004.DVDRip.XviD-aXXo.avi", "build.gradle", 
+                                          "FileCrawler.java", ".bashrc", "index.html", 
+                                          "holiday video.mp4", "data.csv" };
+  
+  @Param({"0", "4096"})
+  public int extraNamePatterns;
+  
+  private final HiddenFileFilter hiddenFilter = new HiddenFileFilter();
+  private FileNameInspector nameInspector;
+  private FilterRules filterRules;
+  private FileAttributes fileAttributes;
+  private File[] paths;
+  
+  @Setup
+  public void setup() throws IOException {
+    Random r = new Random(PATH_COUNT);
+    List<String> patterns = new ArrayList<String>(FileNameInspector.getNotableContents());
+    for (int i = 0; i < extraNamePatterns; i++) {
+      char[] pattern = new char[4 + r.nextInt(8)];
+      for (int j = 0; j < pattern.length; j++) {
+        pattern[j] = (char)('a' + r.nextInt(26));
+      }
+      patterns.add(new String(pattern));
+    }
+    nameInspector = new FileNameInspector(NameMatcher.forSubstrings(patterns));
+    List<String> rules = new ArrayList<String>();
+    rules.add("exclude hidden");
+    rules.add("exclude size>1G");
+    for (int i = 0; i < extraNamePatterns; i++) {
+      // a mix of exact names, extensions and general globs
+      String pattern = patterns.get(patterns.size() - 1 - i);
+      rules.add("exclude glob:" + (i % 3 == 0 ? pattern : (i % 3 == 1 ? "*." : "*") + pattern));
+    }
+    filterRules = FilterRules.parse(rules, System.currentTimeMillis());
+    File attributesFile = File.createTempFile("jfaBenchmark", ".dat");
+    try {
+      fileAttributes = FileAttributes.read(attributesFile.toPath(), true);
+    } finally {
+      attributesFile.delete();
+    }
+    
+    paths = new File[PATH_COUNT];
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < paths.length; i++) {
+      sb.setLength(0);
+      int depth = 2 + r.nextInt(8);
+      for (int j = 0; j < depth; j++) {
+        sb.append('/').append(DIRECTORIES[r.nextInt(DIRECTORIES.length)]);
+      }
+      sb.append('/').append(NAMES[r.nextInt(NAMES.length)]);
+      paths[i] = new File(sb.toString());
+    }
+  }
+  
+  @Benchmark
+  public void hiddenFileFilter(Blackhole bh) {
+    for (File f : paths) {
+      bh.consume(hiddenFilter.shouldExclude(f));
+    }
+  }
+  
+  @Benchmark
+  public void filterRules(Blackhole bh) {
+    for (File f : paths) {
+      bh.consume(filterRules.shouldExclude(f, fileAttributes));
+    }
+  }
+  
+  @Benchmark
+  public void notableName(Blackhole bh) {
+    for (File f : paths) {
+      bh.consume(nameInspector.isNotableName(f));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures listing a directory of empty files with {@link FileUtils#listFolder(File)}, as 
+ * done for every directory during a crawl.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FolderContentsBenchmark {
+  @Param({"10", "1000"})
+  public int fileCount;
+  
+  private File directory;
+  
+  @Setup
+  public void setup() throws IOException {
+    directory = File.createTempFile("jfaBench", "");
+    if (! directory.delete() || ! directory.mkdir()) {
+      throw new IOException("Could not create directory: " + directory);
+    }
+    for (int i = 0; i < fileCount; i++) {
+      if (! new File(directory, "file" + i).createNewFile()) {
+        throw new IOException("Could not create file in: " + directory);
+      }
+    }
+  }
+  
+  @TearDown
+  public void tearDown() {
+    for (File f : directory.listFiles()) {
+      f.delete();
+    }
+    directory.delete();
+  }
+  
+  @Benchmark
+  public File[] listFolder() {
+    return FileUtils.listFolder(directory);
+  }
+}
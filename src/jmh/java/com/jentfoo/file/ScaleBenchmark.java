@@ -0,0 +1,220 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the full {@link FileAnalyzer} pipeline against a generated tree, and records how it
+ * performed as a line of JSON appended to a results file.  If a baseline result is provided
+ * the run is compared to it, and the process exits with a non-zero status if any measure
+ * regressed by more than the tolerance.  A baseline is only compared against if it was run on
+ * a tree generated with the same settings.
+ * 
+ * Bytes read counts every read of file contents: full digests, samples, reads shared by the
+ * content listeners, and lockstep comparisons.
+ * 
+ * Arguments are key=value pairs:
+ * <ul>
+ * <li>tree - Directory to analyze, generated with {@link TreeGenerator} if it does not exist
+ * <li>results - File to append the result to, defaults to "scale-results.ndjson"
+ * <li>baseline - File holding a previous result line to compare against (the last line is used)
+ * <li>tolerance - Portion a measure may get worse by before it is a regression, defaults to 0.1
+ * </ul>
+ * Any other keys are passed to {@link TreeGenerator#fromOptions(Map)}.  The analyzer is run
+ * in this JVM, so each run should be a new process.
+ */
+public class ScaleBenchmark {
+  private static final double DEFAULT_TOLERANCE = 0.1;
+  private static final Pattern NUMBER_FIELD = Pattern.compile("\"(\\w+)\":(-?[0-9.]+)");
+  private static final Pattern GENERATOR_FIELD = Pattern.compile("\"generator\":\"([^\"]*)\"");
+  
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = TreeGenerator.parseOptions(args, 0);
+    String treePath = options.get("tree");
+    if (treePath == null) {
+      System.err.println("Usage: ScaleBenchmark tree=<directory> [results=<file>] " +
+                           "[baseline=<file>] [tolerance=0.1] [generator key=value ...]");
+      System.exit(1);
+    }
+    File tree = new File(treePath);
+    File resultsFile = new File(options.containsKey("results") ?
+                                  options.get("results") : "scale-results.ndjson");
+    double tolerance = options.containsKey("tolerance") ?
+                         Double.parseDouble(options.get("tolerance")) : DEFAULT_TOLERANCE;
+    
+    Map<String, Double> baseline = null;
+    String baselineGenerator = null;
+    if (options.containsKey("baseline")) {
+      // read before running, since the baseline may be the results file itself
+      List<String> baselineLines = Files.readAllLines(new File(options.get("baseline")).toPath(),
+                                                      StandardCharsets.UTF_8);
+      if (baselineLines.isEmpty()) {
+        throw new IOException("Baseline file is empty");
+      }
+      String baselineLine = baselineLines.get(baselineLines.size() - 1);
+      baseline = parseNumbers(baselineLine);
+      Matcher m = GENERATOR_FIELD.matcher(baselineLine);
+      baselineGenerator = m.find() ? m.group(1) : "";
+    }
+    
+    TreeGenerator generator = TreeGenerator.fromOptions(options);
+    if (baselineGenerator != null && ! baselineGenerator.equals(generator.describe())) {
+      // checked before running, a different tree would never be comparable
+      System.err.println("Baseline is for a different tree: " + baselineGenerator + 
+                           " vs " + generator.describe());
+      System.exit(2);
+    }
+    if (! tree.exists()) {
+      System.out.println("Generating tree: " + generator.describe());
+      generator.generate(tree);
+    }
+    
+    // report to a temp file so the output does not distort the timing
+    File reportFile = File.createTempFile("jfaScaleReport", ".txt");
+    System.setProperty("jfa.reportFile", reportFile.getAbsolutePath());
+    List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans();
+    System.gc();
+    resetPeakHeap(heapPools);
+    long startNanos = System.nanoTime();
+    try {
+      FileAnalyzer.main(new String[] { tree.getAbsolutePath() });
+    } finally {
+      Files.deleteIfExists(reportFile.toPath());
+    }
+    long wallMillis = (System.nanoTime() - startNanos) / 1000000;
+    
+    Map<String, Long> metrics = Metrics.getValues();
+    long files = metrics.get("crawl.filesFound");
+    Map<String, Number> result = new LinkedHashMap<String, Number>();
+    result.put("wallMillis", wallMillis);
+    result.put("peakHeapBytes", getPeakHeap(heapPools));
+    result.put("files", files);
+    result.put("bytesRead", getMetric(metrics, "hash.bytes") + getMetric(metrics, "hash.sampleBytes") + 
+                              getMetric(metrics, "content.bytes") + getMetric(metrics, "lockstep.bytes"));
+    result.put("filesPerSecond", files * 1000 / Math.max(1, wallMillis));
+    
+    String resultLine = toJson(tree, generator, result);
+    System.out.println(resultLine);
+    Writer out = new OutputStreamWriter(new FileOutputStream(resultsFile, true),
+                                        StandardCharsets.UTF_8);
+    try {
+      out.write(resultLine);
+      out.write('\n');
+    } finally {
+      out.close();
+    }
+    
+    if (baseline != null && ! compare(baseline, result, tolerance)) {
+      System.exit(2);
+    }
+    System.exit(0);  // analyzer threads may still be winding down
+  }
+  
+  private static long getMetric(Map<String, Long> metrics, String name) {
+    Long value = metrics.get(name);
+    return value == null ? 0 : value;
+  }
+  
+  private static void resetPeakHeap(List<MemoryPoolMXBean> pools) {
+    Iterator<MemoryPoolMXBean> it = pools.iterator();
+    while (it.hasNext()) {
+      MemoryPoolMXBean pool = it.next();
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+  
+  private static long getPeakHeap(List<MemoryPoolMXBean> pools) {
+    // pools peak at different times, so this is an upper bound of the actual peak
+    long result = 0;
+    Iterator<MemoryPoolMXBean> it = pools.iterator();
+    while (it.hasNext()) {
+      MemoryPoolMXBean pool = it.next();
+      if (pool.getType() == MemoryType.HEAP) {
+        result += pool.getPeakUsage().getUsed();
+      }
+    }
+    
+    return result;
+  }
+  
+  private static String toJson(File tree, TreeGenerator generator, Map<String, Number> result) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"scale_benchmark\",\"time\":");
+    sb.append(System.currentTimeMillis()).append(",\"tree\":");
+    JsonReportSink.appendString(sb, tree.getAbsolutePath()).append(",\"generator\":");
+    JsonReportSink.appendString(sb, generator.describe());
+    Iterator<Entry<String, Number>> it = result.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<String, Number> e = it.next();
+      sb.append(",\"").append(e.getKey()).append("\":").append(e.getValue());
+    }
+    
+    return sb.append('}').toString();
+  }
+  
+  private static Map<String, Double> parseNumbers(String line) {
+    Map<String, Double> result = new LinkedHashMap<String, Double>();
+    Matcher m = NUMBER_FIELD.matcher(line);
+    while (m.find()) {
+      result.put(m.group(1), Double.parseDouble(m.group(2)));
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Compares a result to the baseline, printing every measure which got worse by more than
+   * the tolerance.
+   * 
+   * @return true if there were no regressions
+   */
+  private static boolean compare(Map<String, Double> baseline, Map<String, Number> result,
+                                 double tolerance) {
+    if (! result.get("files").equals(baseline.get("files").longValue())) {
+      System.err.println("Baseline is for a different tree: " + baseline.get("files").longValue() +
+                           " files vs " + result.get("files"));
+      return false;
+    }
+    
+    boolean passed = true;
+    // lower is better for these, higher is better for files per second
+    String[] lowerIsBetter = { "wallMillis", "peakHeapBytes", "bytesRead" };
+    for (String key : lowerIsBetter) {
+      double base = baseline.get(key);
+      double current = result.get(key).doubleValue();
+      if (current > base * (1 + tolerance)) {
+        System.err.println("REGRESSION " + key + ": " + (long)current + " vs baseline " + (long)base);
+        passed = false;
+      }
+    }
+    double baseRate = baseline.get("filesPerSecond");
+    double currentRate = result.get("filesPerSecond").doubleValue();
+    if (currentRate < baseRate * (1 - tolerance)) {
+      System.err.println("REGRESSION filesPerSecond: " + (long)currentRate +
+                           " vs baseline " + (long)baseRate);
+      passed = false;
+    }
+    if (passed) {
+      System.out.println("No regressions against baseline (tolerance " +
+                           Math.round(tolerance * 100) + "%)");
+    }
+    
+    return passed;
+  }
+}
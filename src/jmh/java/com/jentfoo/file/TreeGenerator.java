@@ -0,0 +1,283 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a synthetic file tree for benchmarking.  The same seed and settings always
+ * produce the same tree, so runs against separately generated trees can be compared.
+ * 
+ * Every directory above the max depth has the configured number of sub directories, and
+ * every directory has the configured number of files.  File sizes are picked from a log
+ * uniform distribution between the min and max size, so most files are small with a long
+ * tail of large ones.  A portion of files repeat the contents of an earlier file, a portion
+ * of leaf directories are copied whole to a sibling directory, and a portion of files are
+ * hard links to an earlier file.
+ * 
+ * Run directly with the target directory followed by any settings as key=value pairs, for
+ * example: {@code TreeGenerator /tmp/tree depth=4 fanOut=8 filesPerDirectory=50}
+ */
+public class TreeGenerator {
+  private static final int WRITE_BUFFER_SIZE = 1024 * 64;
+  
+  private final long seed;
+  private int depth = 3;
+  private int fanOut = 6;
+  private int filesPerDirectory = 40;
+  private long minFileSize = 0;
+  private long maxFileSize = 1024 * 1024;
+  private double duplicateRatio = 0.2;
+  private double duplicateFolderRatio = 0.05;
+  private double hardLinkRatio = 0.02;
+  // state while generating
+  private Random random;
+  private List<Long> contentSizes;
+  private List<File> files;
+  private long fileCount;
+  private long byteCount;
+  
+  public TreeGenerator(long seed) {
+    this.seed = seed;
+  }
+  
+  /**
+   * Constructs a generator from key=value settings, keys are the same as the setter names
+   * (for example "depth" or "duplicateRatio"), and "seed" picks the seed.  Unknown keys are
+   * ignored so that settings can be shared with other tools.
+   * 
+   * @param options Settings to apply
+   * @return Generator with the settings applied
+   */
+  public static TreeGenerator fromOptions(Map<String, String> options) {
+    TreeGenerator result = new TreeGenerator(Long.parseLong(getOption(options, "seed", "1")));
+    result.setDepth(Integer.parseInt(getOption(options, "depth", Integer.toString(result.depth))));
+    result.setFanOut(Integer.parseInt(getOption(options, "fanOut", Integer.toString(result.fanOut))));
+    result.setFilesPerDirectory(Integer.parseInt(getOption(options, "filesPerDirectory",
+                                                           Integer.toString(result.filesPerDirectory))));
+    result.setFileSizeRange(Long.parseLong(getOption(options, "minFileSize",
+                                                     Long.toString(result.minFileSize))),
+                            Long.parseLong(getOption(options, "maxFileSize",
+                                                     Long.toString(result.maxFileSize))));
+    result.setDuplicateRatio(Double.parseDouble(getOption(options, "duplicateRatio",
+                                                          Double.toString(result.duplicateRatio))));
+    result.setDuplicateFolderRatio(Double.parseDouble(getOption(options, "duplicateFolderRatio",
+                                                                Double.toString(result.duplicateFolderRatio))));
+    result.setHardLinkRatio(Double.parseDouble(getOption(options, "hardLinkRatio",
+                                                         Double.toString(result.hardLinkRatio))));
+    
+    return result;
+  }
+  
+  private static String getOption(Map<String, String> options, String key, String defaultValue) {
+    String result = options.get(key);
+    return result == null ? defaultValue : result;
+  }
+  
+  /**
+   * Parses key=value arguments into a map.
+   * 
+   * @param args Arguments to parse
+   * @param start Index of the first argument to parse
+   * @return Map of keys to values
+   */
+  public static Map<String, String> parseOptions(String[] args, int start) {
+    Map<String, String> result = new HashMap<String, String>();
+    for (int i = start; i < args.length; i++) {
+      int delim = args[i].indexOf('=');
+      if (delim < 1) {
+        throw new IllegalArgumentException("Expected key=value: " + args[i]);
+      }
+      result.put(args[i].substring(0, delim), args[i].substring(delim + 1));
+    }
+    
+    return result;
+  }
+  
+  public void setDepth(int depth) {
+    if (depth < 0) {
+      throw new IllegalArgumentException("Depth can not be negative: " + depth);
+    }
+    this.depth = depth;
+  }
+  
+  public void setFanOut(int fanOut) {
+    if (fanOut < 1) {
+      throw new IllegalArgumentException("Must have at least one sub directory: " + fanOut);
+    }
+    this.fanOut = fanOut;
+  }
+  
+  public void setFilesPerDirectory(int filesPerDirectory) {
+    if (filesPerDirectory < 0) {
+      throw new IllegalArgumentException("File count can not be negative: " + filesPerDirectory);
+    }
+    this.filesPerDirectory = filesPerDirectory;
+  }
+  
+  public void setFileSizeRange(long minFileSize, long maxFileSize) {
+    if (minFileSize < 0 || maxFileSize < minFileSize) {
+      throw new IllegalArgumentException("Invalid size range: " + minFileSize + " - " + maxFileSize);
+    }
+    this.minFileSize = minFileSize;
+    this.maxFileSize = maxFileSize;
+  }
+  
+  public void setDuplicateRatio(double duplicateRatio) {
+    this.duplicateRatio = checkRatio(duplicateRatio);
+  }
+  
+  public void setDuplicateFolderRatio(double duplicateFolderRatio) {
+    this.duplicateFolderRatio = checkRatio(duplicateFolderRatio);
+  }
+  
+  public void setHardLinkRatio(double hardLinkRatio) {
+    this.hardLinkRatio = checkRatio(hardLinkRatio);
+  }
+  
+  private static double checkRatio(double ratio) {
+    if (ratio < 0 || ratio > 1) {
+      throw new IllegalArgumentException("Ratio must be from 0 to 1: " + ratio);
+    }
+    
+    return ratio;
+  }
+  
+  /**
+   * Returns a description of the settings, used to make sure results are only compared
+   * between identical trees.
+   * 
+   * @return Settings as a single string
+   */
+  public String describe() {
+    return "seed=" + seed + " depth=" + depth + " fanOut=" + fanOut +
+             " filesPerDirectory=" + filesPerDirectory + " minFileSize=" + minFileSize +
+             " maxFileSize=" + maxFileSize + " duplicateRatio=" + duplicateRatio +
+             " duplicateFolderRatio=" + duplicateFolderRatio + " hardLinkRatio=" + hardLinkRatio;
+  }
+  
+  /**
+   * Generates the tree.  The directory must not already exist.
+   * 
+   * @param root Directory to generate the tree in
+   * @throws IOException Thrown if the tree could not be written
+   */
+  public synchronized void generate(File root) throws IOException {
+    if (root.exists()) {
+      throw new IOException("Already exists: " + root);
+    }
+    
+    random = new Random(seed);
+    contentSizes = new ArrayList<Long>();
+    files = new ArrayList<File>();
+    fileCount = 0;
+    byteCount = 0;
+    try {
+      generateDirectory(root, 0);
+    } finally {
+      contentSizes = null;
+      files = null;
+    }
+  }
+  
+  public synchronized long getFileCount() {
+    return fileCount;
+  }
+  
+  public synchronized long getByteCount() {
+    return byteCount;
+  }
+  
+  private void generateDirectory(File directory, int level) throws IOException {
+    mkdir(directory);
+    for (int i = 0; i < filesPerDirectory; i++) {
+      File file = new File(directory, "file" + i + ".dat");
+      double roll = random.nextDouble();
+      if (roll < hardLinkRatio && ! files.isEmpty()) {
+        Files.createLink(file.toPath(), files.get(random.nextInt(files.size())).toPath());
+        fileCount++;
+        continue;
+      }
+      
+      int contentId;
+      if (roll < hardLinkRatio + duplicateRatio && ! contentSizes.isEmpty()) {
+        contentId = random.nextInt(contentSizes.size());
+      } else {
+        contentId = contentSizes.size();
+        contentSizes.add(pickSize());
+      }
+      writeContent(file, contentId);
+      files.add(file);
+    }
+    
+    if (level < depth) {
+      for (int i = 0; i < fanOut; i++) {
+        generateDirectory(new File(directory, "dir" + i), level + 1);
+      }
+    } else if (random.nextDouble() < duplicateFolderRatio) {
+      File copy = new File(directory.getParentFile(), directory.getName() + "-copy");
+      mkdir(copy);
+      File[] contents = directory.listFiles();
+      for (File f : contents) {
+        Files.copy(f.toPath(), new File(copy, f.getName()).toPath());
+        fileCount++;
+        byteCount += f.length();
+      }
+    }
+  }
+  
+  private static void mkdir(File directory) throws IOException {
+    if (! directory.mkdirs()) {
+      throw new IOException("Could not create directory: " + directory);
+    }
+  }
+  
+  private long pickSize() {
+    // log uniform, so each doubling of size is about as likely
+    double logMin = Math.log(minFileSize + 1);
+    double logMax = Math.log(maxFileSize + 1);
+    return Math.min(maxFileSize,
+                    Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin))) - 1);
+  }
+  
+  /**
+   * Writes the contents for a content id, which are the same every time for the same id.
+   */
+  private void writeContent(File file, int contentId) throws IOException {
+    long size = contentSizes.get(contentId);
+    Random contentRandom = new Random(seed * 31 + contentId);
+    byte[] buffer = new byte[(int)Math.min(size, WRITE_BUFFER_SIZE)];
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      long remaining = size;
+      while (remaining > 0) {
+        contentRandom.nextBytes(buffer);
+        int length = (int)Math.min(remaining, buffer.length);
+        out.write(buffer, 0, length);
+        remaining -= length;
+      }
+    } finally {
+      out.close();
+    }
+    fileCount++;
+    byteCount += size;
+  }
+  
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: TreeGenerator <directory> [key=value ...]");
+      System.exit(1);
+    }
+    
+    TreeGenerator generator = fromOptions(parseOptions(args, 1));
+    generator.generate(new File(args[0]));
+    System.out.println("Generated " + generator.getFileCount() + " files, " +
+                         generator.getByteCount() + " bytes: " + generator.describe());
+  }
+}
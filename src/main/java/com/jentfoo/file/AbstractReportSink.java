@@ -0,0 +1,58 @@
+package com.jentfoo.file;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Base for sinks which write each record to a buffered stream as it is reported.  Records 
+ * are written while holding this sink's lock, so records from different threads are never 
+ * interleaved.  When the stream is shared with other output (for example standard out), 
+ * each record can be flushed as it is written so that it is never split up.
+ */
+public abstract class AbstractReportSink implements ReportSinkInterface {
+  private static final int BUFFER_SIZE = 1024 * 64;
+  
+  private final Writer out;
+  private final boolean flushEachRecord;
+  
+  protected AbstractReportSink(OutputStream out, boolean flushEachRecord) {
+    this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    this.flushEachRecord = flushEachRecord;
+  }
+  
+  /**
+   * Writes a record, must be called while holding this sink's lock.
+   * 
+   * @param record Record to write, including any line separator
+   */
+  protected void write(CharSequence record) {
+    try {
+      out.append(record);
+      if (flushEachRecord) {
+        out.flush();
+      }
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+  
+  @Override
+  public synchronized void flush() throws IOException {
+    out.flush();
+  }
+  
+  /**
+   * Flushes and closes the underlying stream.
+   * 
+   * @throws IOException Thrown if the output could not be written
+   */
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,374 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Reads files through an {@link AsynchronousFileChannel}, keeping up to a fixed number of reads
+ * in flight on each device at once.  Reads are started with
+ * {@link #read(File, FileAttributes, ContentHandlerInterface, FileReadCallbackInterface)}, which
+ * returns as soon as the first read is issued.  Each block is provided to the handler as its
+ * read completes, and the next read for that file is only issued once the handler returns.  So
+ * every file has a single read outstanding and its blocks arrive in order, while the depth of
+ * the device queue comes from reading many files at once rather than from more threads waiting
+ * on reads.
+ * 
+ * Once a device's limit is reached, starting another read from it blocks until one of its files
+ * in flight completes.  Devices are found through the {@link DeviceScheduler} set with
+ * {@link #setDeviceScheduler(DeviceScheduler)}.  Spinning disks (devices read in inode order)
+ * are limited to their work unit concurrency, since competing reads only make the heads seek.
+ * Without a device scheduler every file shares a single limit.
+ * 
+ * Channels are opened with the reader's own fixed size pool of threads.  How reads use those
+ * threads depends on the platform.  Where the JDK has native asynchronous file I/O (Windows),
+ * the pool only handles completions, and every read in flight is queued on the device.
+ * Elsewhere (including Linux) the JDK performs each read as a blocking call on a thread of
+ * the pool.  There, at most as many reads as the pool has threads reach the device at once,
+ * and the rest wait in the pool's queue.  The device queue depth is then set by the thread
+ * count rather than by the reads in flight.  The threads are daemon threads, and idle ones
+ * exit on their own.
+ */
+public class AsyncFileReader implements FileReaderInterface {
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+  public static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final long IDLE_THREAD_MILLIS = 10 * 1000;
+  private static final Set<OpenOption> OPEN_OPTIONS =
+      Collections.<OpenOption>singleton(StandardOpenOption.READ);
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+  private static final Histogram READ_NANOS = Metrics.histogram("read.asyncNanos");
+  private static final Object NO_DEVICE = new Object();
+  
+  private final int blockSize;
+  private final int maxInFlight;
+  private final ConcurrentMap<Object, Semaphore> readPermits;
+  private final AtomicInteger inFlightCount;
+  private final Object idleLock;
+  private final Queue<ByteBuffer> buffers;
+  private final ExecutorService executor;
+  private volatile DeviceScheduler deviceScheduler;
+  
+  /**
+   * Constructs a new reader.
+   * 
+   * @param blockSize Size of each read, one buffer is kept for each read in flight
+   * @param maxInFlight Maximum files being read at once from each device
+   * @param threadCount Threads in the pool which reads complete on (and on Linux are performed on)
+   */
+  public AsyncFileReader(int blockSize, int maxInFlight, int threadCount) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("Must allow at least one read in flight: " + maxInFlight);
+    } else if (threadCount < 1) {
+      throw new IllegalArgumentException("Must have at least one thread: " + threadCount);
+    }
+    
+    this.blockSize = blockSize;
+    this.maxInFlight = maxInFlight;
+    readPermits = new ConcurrentHashMap<Object, Semaphore>();
+    inFlightCount = new AtomicInteger();
+    idleLock = new Object();
+    deviceScheduler = null;
+    buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    final String threadPrefix = "jfa-async-read-" + POOL_COUNT.incrementAndGet() + "-";
+    ThreadPoolExecutor pool = 
+        new ThreadPoolExecutor(threadCount, threadCount, IDLE_THREAD_MILLIS, TimeUnit.MILLISECONDS, 
+                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger createdCount = new AtomicInteger();
+      
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadPrefix + createdCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+    Metrics.registerGauge("read.inFlight", new GaugeInterface() {
+      @Override
+      public long getValue() {
+        return getInFlightCount();
+      }
+    });
+  }
+  
+  /**
+   * Sets the scheduler used to find the device each file is stored on, so that reads are 
+   * limited per device.  This should be set before any reads are started.
+   * 
+   * @param deviceScheduler Scheduler to find devices with, or null to share one limit
+   */
+  public void setDeviceScheduler(DeviceScheduler deviceScheduler) {
+    this.deviceScheduler = deviceScheduler;
+  }
+  
+  /**
+   * Returns how many files currently have a read outstanding, across all devices.
+   * 
+   * @return Number of reads in flight
+   */
+  public int getInFlightCount() {
+    return inFlightCount.get();
+  }
+  
+  /**
+   * Starts reading a file, blocking only if the maximum number of reads are already in flight 
+   * for its device.  The handler is provided each block from the thread which completed its 
+   * read, and never from more than one thread at a time.
+   * 
+   * @param file File to read
+   * @param attributes Attributes of the file to find its device with, or null to read them
+   * @param handler Handler to receive the file contents
+   * @param callback Callback to be invoked once the file has been read, or failed to be
+   */
+  public void read(File file, FileAttributes attributes, 
+                   ContentHandlerInterface handler, FileReadCallbackInterface callback) {
+    Semaphore permits;
+    try {
+      permits = getPermits(file, attributes);
+    } catch (Throwable t) {
+      callback.readFailed(file, t);
+      return;
+    }
+    permits.acquireUninterruptibly();
+    inFlightCount.incrementAndGet();
+    AsynchronousFileChannel channel;
+    try {
+      channel = AsynchronousFileChannel.open(file.toPath(), OPEN_OPTIONS, executor);
+    } catch (Throwable t) {
+      try {
+        callback.readFailed(file, t);
+      } finally {
+        readDone(permits);
+      }
+      return;
+    }
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(blockSize);
+    }
+    
+    new FileRead(file, channel, buffer, permits, handler, callback).readNext();
+  }
+  
+  /**
+   * Reads a file, blocking until it has been fully provided to the handler.  This must not be
+   * called from within a handler or callback of this reader.
+   */
+  @Override
+  public void read(File file, ContentHandlerInterface handler) throws IOException {
+    BlockingCallback callback = new BlockingCallback();
+    read(file, null, handler, callback);
+    callback.awaitCompletion();
+  }
+  
+  /**
+   * Returns the permits limiting reads on the device the file is stored on.
+   */
+  private Semaphore getPermits(File file, FileAttributes attributes) throws IOException {
+    DeviceScheduler scheduler = deviceScheduler;
+    Object key;
+    int limit = maxInFlight;
+    if (scheduler == null) {
+      key = NO_DEVICE;
+    } else {
+      DeviceScheduler.Device device;
+      if (attributes == null) {
+        device = scheduler.getDevice(file, null);
+      } else {
+        device = scheduler.getDevice(file, attributes, null);
+      }
+      key = device;
+      if (device.isOrderedByInode()) {
+        limit = Math.min(limit, device.getMaxConcurrency());
+      }
+    }
+    Semaphore result = readPermits.get(key);
+    if (result == null) {
+      result = new Semaphore(limit);
+      Semaphore existing = readPermits.putIfAbsent(key, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    
+    return result;
+  }
+  
+  private void readDone(Semaphore permits) {
+    // uncounted first, so the count never includes a read waiting on this permit
+    if (inFlightCount.decrementAndGet() == 0) {
+      synchronized (idleLock) {
+        idleLock.notifyAll();
+      }
+    }
+    permits.release();
+  }
+  
+  /**
+   * Blocks until every read which has been started has completed, and its callback has
+   * returned.  Reads started while waiting may or may not be waited on.
+   */
+  public void awaitIdle() {
+    // reads are only counted as done once their callback returns
+    boolean interrupted = false;
+    synchronized (idleLock) {
+      while (inFlightCount.get() > 0) {
+        try {
+          idleLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * State of a single file being read, which is also the handler for each of its reads
+   * completing.
+   */
+  private class FileRead implements CompletionHandler<Integer, Void> {
+    private final File file;
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+    private final Semaphore permits;
+    private final ContentHandlerInterface handler;
+    private final FileReadCallbackInterface callback;
+    private final long startNanos;
+    private long position;
+    
+    private FileRead(File file, AsynchronousFileChannel channel, ByteBuffer buffer, 
+                     Semaphore permits, ContentHandlerInterface handler, 
+                     FileReadCallbackInterface callback) {
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.permits = permits;
+      this.handler = handler;
+      this.callback = callback;
+      startNanos = System.nanoTime();
+      position = 0;
+    }
+    
+    private void readNext() {
+      buffer.clear();
+      try {
+        channel.read(buffer, position, null, this);
+      } catch (Throwable t) {
+        finish(t);
+      }
+    }
+    
+    @Override
+    public void completed(Integer readCount, Void attachment) {
+      if (readCount < 0) {
+        finish(null);
+        return;
+      }
+      
+      try {
+        buffer.flip();
+        handler.handleContent(buffer);
+      } catch (Throwable t) {
+        finish(t);
+        return;
+      }
+      position += readCount;
+      readNext();
+    }
+    
+    @Override
+    public void failed(Throwable t, Void attachment) {
+      finish(t);
+    }
+    
+    private void finish(Throwable failure) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignored, contents were already read
+      }
+      buffers.offer(buffer);
+      READ_NANOS.record(System.nanoTime() - startNanos);
+      try {
+        if (failure == null) {
+          callback.readComplete(file, position);
+        } else {
+          callback.readFailed(file, failure);
+        }
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+      } finally {
+        readDone(permits);
+      }
+    }
+  }
+  
+  /**
+   * Callback which lets a thread wait for a read to complete, as if it had read the file
+   * itself.
+   */
+  private static class BlockingCallback implements FileReadCallbackInterface {
+    private boolean done = false;
+    private Throwable failure = null;
+    
+    @Override
+    public synchronized void readComplete(File file, long byteCount) {
+      done = true;
+      this.notifyAll();
+    }
+    
+    @Override
+    public synchronized void readFailed(File file, Throwable t) {
+      failure = t;
+      done = true;
+      this.notifyAll();
+    }
+    
+    private synchronized void awaitCompletion() throws IOException {
+      boolean interrupted = false;
+      while (! done) {
+        try {
+          this.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      
+      if (failure instanceof IOException) {
+        throw (IOException)failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException)failure;  // thrown by the handler
+      } else if (failure instanceof Error) {
+        throw (Error)failure;
+      } else if (failure != null) {
+        throw new IOException(failure);
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads files through a {@link FileChannel} in large blocks, into a direct buffer which is 
+ * reused per thread.  This avoids copying the contents into the heap for every read.
+ */
+public class ChannelFileReader implements FileReaderInterface {
+  private final ThreadLocal<ByteBuffer> buffers;
+  
+  public ChannelFileReader(final int blockSize) {
+    buffers = new ThreadLocal<ByteBuffer>() {
+      @Override
+      protected ByteBuffer initialValue() {
+        return ByteBuffer.allocateDirect(blockSize);
+      }
+    };
+  }
+  
+  @Override
+  public void read(File file, ContentHandlerInterface handler) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      read(channel, handler);
+    } finally {
+      channel.close();
+    }
+  }
+  
+  /**
+   * Reads the rest of a channel which is already open, leaving it to the caller to close.
+   * 
+   * @param channel Channel to read from its current position
+   * @param handler Handler to provide the contents to
+   * @throws IOException Thrown if the channel could not be read
+   */
+  void read(FileChannel channel, ContentHandlerInterface handler) throws IOException {
+    ByteBuffer buffer = buffers.get();
+    buffer.clear();
+    while (channel.read(buffer) > -1) {
+      buffer.flip();
+      handler.handleContent(buffer);
+      buffer.clear();
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Digests very large files as a two level tree, so a single file can be read and hashed by
+ * several threads at once.  The file is split into fixed size chunks, each chunk is hashed on
+ * its own, and the digest of the file is the hash of every chunk's digest in order followed by
+ * the file's length.
+ * 
+ * The result is not the same as hashing the file's contents directly.  Since only files above
+ * the threshold are chunked, and duplicates always have the same length, two files which are
+ * compared are always digested the same way.  Digests should only be cached under
+ * {@link #getName()}, so that they are not mixed up with digests made with other settings.
+ * 
+ * Chunks are hashed by helpers run through the {@link DeviceScheduler.Device} the file is
+ * stored on, so a file is never read by more threads than its device allows.  The thread asking
+ * for a digest hashes chunks as well, and is expected to already hold one of the device's
+ * slots (as work units do).  On a device limited to one reader it hashes every chunk itself.
+ * It only waits on chunks other threads have already started, so this is safe to call even if
+ * every other thread is busy.
+ */
+public class ChunkedFileDigester {
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024 * 64;
+  private static final AtomicLong CHUNKS_HASHED = Metrics.counter("hash.chunks");
+  private static final AtomicLong CHUNKED_FILES = Metrics.counter("hash.chunkedFiles");
+  
+  private final DeviceScheduler deviceScheduler;
+  private final HashFunctionInterface hashFunction;
+  private final long threshold;
+  private final int chunkSize;
+  private final int maxParallelism;
+  private final ThreadLocal<HasherInterface> hashers;
+  private final ThreadLocal<ByteBuffer> buffers;
+  
+  /**
+   * Constructs a new digester.
+   * 
+   * @param deviceScheduler Scheduler to find the device of each file, and run helpers through
+   * @param hashFunction Hash function used for both the chunks and the file digest
+   * @param threshold Files longer than this many bytes are digested in chunks
+   * @param chunkSize Size in bytes of each chunk
+   * @param blockSize Size of each read within a chunk
+   * @param maxParallelism Maximum threads hashing chunks of a single file at once
+   */
+  public ChunkedFileDigester(DeviceScheduler deviceScheduler, 
+                             final HashFunctionInterface hashFunction,
+                             long threshold, int chunkSize, final int blockSize,
+                             int maxParallelism) {
+    if (threshold <= 0) {
+      throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+    } else if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    } else if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    } else if (maxParallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + maxParallelism);
+    }
+    
+    this.deviceScheduler = deviceScheduler;
+    this.hashFunction = hashFunction;
+    this.threshold = threshold;
+    this.chunkSize = chunkSize;
+    this.maxParallelism = maxParallelism;
+    this.hashers = new ThreadLocal<HasherInterface>() {
+      @Override
+      protected HasherInterface initialValue() {
+        return hashFunction.makeHasher();
+      }
+    };
+    this.buffers = new ThreadLocal<ByteBuffer>() {
+      @Override
+      protected ByteBuffer initialValue() {
+        return ByteBuffer.allocateDirect(blockSize);
+      }
+    };
+  }
+  
+  /**
+   * Returns a name for digests produced with these settings.  Like a hash function's name,
+   * digests with the same name are always comparable.
+   * 
+   * @return Name of the hash function, followed by the threshold and chunk size
+   */
+  public String getName() {
+    return hashFunction.getName() + "/tree:" + threshold + ':' + chunkSize;
+  }
+  
+  /**
+   * Checks if a file of the given length should be digested with this digester.
+   * 
+   * @param length Length of the file in bytes
+   * @return true if the file is above the threshold
+   */
+  public boolean shouldChunk(long length) {
+    return length > threshold;
+  }
+  
+  /**
+   * Digests a file, blocking until every chunk has been hashed.
+   * 
+   * @param file File to digest
+   * @param length Length of the file, as it was when crawled
+   * @return Digest of the chunk digests and length
+   * @throws IOException Thrown if any chunk could not be read
+   */
+  public DigestResult digest(File file, long length) throws IOException {
+    int chunkCount = (int)((length + chunkSize - 1) / chunkSize);
+    DeviceScheduler.Device device = deviceScheduler.getDevice(file, null);
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    ChunkedRead read;
+    try {
+      read = new ChunkedRead(channel, length, chunkCount);
+      // this thread already counts against the device, so it is one of the readers
+      int helperCount = Math.min(Math.min(chunkCount, maxParallelism), 
+                                 device.getMaxConcurrency()) - 1;
+      for (int i = 0; i < helperCount; i++) {
+        device.executeHelper(read);
+      }
+      read.run();
+      read.awaitChunks();
+    } finally {
+      channel.close();
+    }
+    
+    HasherInterface hasher = hashers.get();
+    try {
+      for (DigestResult chunkDigest : read.chunkDigests) {
+        hasher.handleContent(ByteBuffer.wrap(chunkDigest.toBytes()));
+      }
+      ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+      lengthBuffer.putLong(length).flip();
+      hasher.handleContent(lengthBuffer);
+      CHUNKED_FILES.incrementAndGet();
+      
+      return hasher.finish();
+    } finally {
+      hasher.reset();
+    }
+  }
+  
+  /**
+   * Chunks of a single file being hashed.  Every thread running this claims chunks until none
+   * are left, so helpers which start late simply have nothing to do.
+   */
+  private class ChunkedRead implements Runnable {
+    private final FileChannel channel;
+    private final long length;
+    private final DigestResult[] chunkDigests;
+    private final AtomicInteger nextChunk;
+    private int remainingChunks;
+    private volatile Throwable failure;
+    
+    private ChunkedRead(FileChannel channel, long length, int chunkCount) {
+      this.channel = channel;
+      this.length = length;
+      chunkDigests = new DigestResult[chunkCount];
+      nextChunk = new AtomicInteger();
+      remainingChunks = chunkCount;
+      failure = null;
+    }
+    
+    @Override
+    public void run() {
+      int chunk;
+      while ((chunk = nextChunk.getAndIncrement()) < chunkDigests.length) {
+        try {
+          if (failure == null) {
+            chunkDigests[chunk] = hashChunk(chunk);
+          }
+        } catch (Throwable t) {
+          failure = t;
+        } finally {
+          // claimed chunks are always counted, even once failed, so waiting always ends
+          synchronized (this) {
+            if (--remainingChunks == 0) {
+              this.notifyAll();
+            }
+          }
+        }
+      }
+    }
+    
+    private DigestResult hashChunk(int chunk) throws IOException {
+      HasherInterface hasher = hashers.get();
+      ByteBuffer buffer = buffers.get();
+      long position = (long)chunk * chunkSize;
+      long end = Math.min(length, position + chunkSize);
+      try {
+        while (position < end) {
+          buffer.clear();
+          buffer.limit((int)Math.min(buffer.capacity(), end - position));
+          int readCount = channel.read(buffer, position);
+          if (readCount < 0) {
+            break;  // file was truncated since it was crawled
+          }
+          buffer.flip();
+          hasher.handleContent(buffer);
+          position += readCount;
+        }
+        CHUNKS_HASHED.incrementAndGet();
+        
+        return hasher.finish();
+      } finally {
+        hasher.reset();
+      }
+    }
+    
+    private void awaitChunks() throws IOException {
+      boolean interrupted = false;
+      synchronized (this) {
+        while (remainingChunks > 0) {
+          try {
+            this.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      
+      if (failure instanceof IOException) {
+        throw (IOException)failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException)failure;
+      } else if (failure != null) {
+        throw new IOException(failure);
+      }
+    }
+  }
+}
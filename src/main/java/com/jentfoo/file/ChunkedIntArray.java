@@ -0,0 +1,36 @@
+package com.jentfoo.file;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Growable array of ints, allocated in fixed size chunks so that it never needs to be copied
+ * as it grows.  Chunks are allocated lazily and safely from any thread, but reads and writes
+ * of the values themselves are not synchronized.  Callers must provide their own happens
+ * before relationship between writing a value and reading it from another thread.
+ */
+public class ChunkedIntArray {
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+  
+  private final AtomicReferenceArray<int[]> chunks;
+  
+  public ChunkedIntArray() {
+    chunks = new AtomicReferenceArray<int[]>(MAX_CHUNKS);
+  }
+  
+  public int get(int index) {
+    return chunks.get(index >>> CHUNK_BITS)[index & CHUNK_MASK];
+  }
+  
+  public void set(int index, int value) {
+    int chunkIndex = index >>> CHUNK_BITS;
+    int[] chunk = chunks.get(chunkIndex);
+    if (chunk == null) {
+      chunks.compareAndSet(chunkIndex, null, new int[CHUNK_SIZE]);
+      chunk = chunks.get(chunkIndex);
+    }
+    chunk[index & CHUNK_MASK] = value;
+  }
+}
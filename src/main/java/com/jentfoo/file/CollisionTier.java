@@ -0,0 +1,71 @@
+package com.jentfoo.file;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Groups files by a key, holding back the first file seen for each key until a
+ * second file with the same key shows up.  Files which never collide with another
+ * file never have to be passed on to the (more expensive) stage that follows.
+ *
+ * Files are identified by their {@link PathTable} node id, so a held back file costs
+ * its key and an int rather than a {@link java.io.File} and its path.  Primitive long
+ * keys should use {@link LongCollisionTier} instead.
+ *
+ * This is safe to be called in parallel, and a held back file will only ever be
+ * released once.
+ *
+ * @param <K> Type of key files are grouped by
+ */
+public class CollisionTier<K> {
+  static final int COLLIDED = -2;
+  static final int[] NO_NODES = new int[0];
+  private static final Integer COLLIDED_MARKER = COLLIDED;
+  
+  private final ConcurrentMap<K, Integer> firstNodes;
+  
+  public CollisionTier() {
+    firstNodes = new ConcurrentHashMap<K, Integer>();
+  }
+  
+  /**
+   * Offers a node into the tier.  The returned array contains the nodes which now need
+   * to be passed to the next stage.  For the first node of a key this will be empty, for
+   * the second node it will contain both the held back node and the provided node, and
+   * after that it will only contain the provided node.
+   *
+   * @param key Key the node is grouped by
+   * @param nodeId Id of the node to be offered
+   * @return Ids of the nodes which should continue on to the next stage
+   */
+  public int[] offer(K key, int nodeId) {
+    Integer first = firstNodes.putIfAbsent(key, nodeId);
+    if (first == null) {
+      return NO_NODES;
+    } else if (first.intValue() != COLLIDED &&
+               firstNodes.replace(key, first, COLLIDED_MARKER)) {
+      return new int[] { first, nodeId };
+    } else {
+      return new int[] { nodeId };
+    }
+  }
+  
+  /**
+   * Returns how many nodes have never collided with another node.  These files never
+   * needed to be passed to the next stage.
+   *
+   * @return Number of nodes eliminated by this tier
+   */
+  public int getEliminatedCount() {
+    int result = 0;
+    Iterator<Integer> it = firstNodes.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().intValue() != COLLIDED) {
+        result++;
+      }
+    }
+    
+    return result;
+  }
+}
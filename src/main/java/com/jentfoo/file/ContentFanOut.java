@@ -0,0 +1,154 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Reads each file once for every {@link FileContentListenerInterface}, handing the same blocks
+ * to all of them.  Adding another content listener adds to the CPU spent per block, but not to
+ * how much is read.  Files are read through a {@link FileChannel} into a direct buffer which is
+ * reused per thread, and only as far as the listeners need.
+ */
+public class ContentFanOut {
+  private static final Histogram READ_NANOS = Metrics.histogram("content.readNanos");
+  private static final AtomicLong FILES_READ = Metrics.counter("content.files");
+  private static final AtomicLong BYTES_READ = Metrics.counter("content.bytes");
+  
+  private final List<FileContentListenerInterface> listeners;
+  private final ThreadLocal<ByteBuffer> buffers;
+  private volatile int blockSize;
+  
+  public ContentFanOut() {
+    listeners = new CopyOnWriteArrayList<FileContentListenerInterface>();
+    buffers = new ThreadLocal<ByteBuffer>();
+    blockSize = FileReaders.DEFAULT_BLOCK_SIZE;
+  }
+  
+  public void addListener(FileContentListenerInterface listener) {
+    if (listener != null) {
+      listeners.add(listener);
+    }
+  }
+  
+  public boolean hasListeners() {
+    return ! listeners.isEmpty();
+  }
+  
+  /**
+   * Sets the size of each read.  This should be set before any files are read.
+   * 
+   * @param blockSize Size in bytes of the buffer each thread reads into
+   */
+  public void setBlockSize(int blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    this.blockSize = blockSize;
+  }
+  
+  /**
+   * Reads a file for the listeners.  If no listener needs the contents, the file is not
+   * opened at all.
+   * 
+   * @param file File to read
+   * @param attributes Attributes of the file
+   */
+  public void read(File file, FileAttributes attributes) {
+    long readLength = 0;
+    for (FileContentListenerInterface l : listeners) {
+      readLength = Math.max(readLength, l.getContentLength(file, attributes));
+    }
+    if (readLength <= 0) {
+      return;
+    }
+    
+    FileContentListenerInterface[] startedListeners = new FileContentListenerInterface[listeners.size()];
+    ContentHandlerInterface[] handlers = new ContentHandlerInterface[startedListeners.length];
+    int handlerCount = 0;
+    for (FileContentListenerInterface l : listeners) {
+      if (handlerCount == handlers.length) {
+        break;  // listener added while reading
+      }
+      ContentHandlerInterface handler = l.startContent(file, attributes, readLength);
+      if (handler != null) {
+        startedListeners[handlerCount] = l;
+        handlers[handlerCount] = handler;
+        handlerCount++;
+      }
+    }
+    if (handlerCount == 0) {
+      return;
+    }
+    
+    boolean wholeFile = false;
+    try {
+      wholeFile = read(file, readLength, handlers, handlerCount);
+    } catch (IOException e) {
+      if (! (e instanceof FileNotFoundException || e instanceof NoSuchFileException)) {
+        ExceptionUtils.handleException(e);
+      }
+    } finally {
+      for (int i = 0; i < handlerCount; i++) {
+        try {
+          startedListeners[i].finishContent(file, handlers[i], wholeFile);
+        } catch (Exception e) {
+          ExceptionUtils.handleException(e);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Reads up to the read length, providing each block to every handler.
+   * 
+   * @return true if the end of the file was reached
+   */
+  private boolean read(File file, long readLength, ContentHandlerInterface[] handlers,
+                       int handlerCount) throws IOException {
+    long startNanos = System.nanoTime();
+    ByteBuffer buffer = buffers.get();
+    if (buffer == null || buffer.capacity() != blockSize) {
+      buffer = ByteBuffer.allocateDirect(blockSize);
+      buffers.set(buffer);
+    }
+    long remaining = readLength;
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      buffer.clear();
+      buffer.limit((int)Math.min(buffer.capacity(), remaining));
+      int readCount;
+      while ((readCount = channel.read(buffer)) > -1) {
+        remaining -= readCount;
+        buffer.flip();
+        int limit = buffer.limit();
+        for (int i = 0; i < handlerCount; i++) {
+          // every handler sees the whole block, no matter how far the last one read
+          buffer.limit(limit).position(0);
+          handlers[i].handleContent(buffer);
+        }
+        BYTES_READ.addAndGet(readCount);
+        if (remaining <= 0) {
+          return channel.position() >= channel.size();
+        }
+        buffer.clear();
+        buffer.limit((int)Math.min(buffer.capacity(), remaining));
+      }
+      
+      return true;
+    } finally {
+      channel.close();
+      FILES_READ.incrementAndGet();
+      READ_NANOS.record(System.nanoTime() - startNanos);
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.jentfoo.file;
+
+import java.nio.ByteBuffer;
+
+public interface ContentHandlerInterface {
+  /**
+   * Called with the next block of a file's contents.  Blocks are provided 
+   * in order, and the buffer (as well as its contents) are only valid for 
+   * the duration of this call.
+   * 
+   * @param buffer Buffer with the position and limit set to the block of content
+   */
+  public void handleContent(ByteBuffer buffer);
+}
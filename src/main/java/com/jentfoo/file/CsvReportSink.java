@@ -0,0 +1,74 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes results as CSV, with one row per file or folder so that groups can be processed 
+ * with standard tools.  Every row has the same columns:
+ * type,group,path,other_path,containment,jaccard,value
+ */
+public class CsvReportSink extends AbstractReportSink {
+  public static final String HEADER = "type,group,path,other_path,containment,jaccard,value\n";
+  
+  private int hardLinkGroupCount;
+  private int folderGroupCount;
+  
+  public CsvReportSink(OutputStream out, boolean flushEachRecord) {
+    super(out, flushEachRecord);
+    
+    hardLinkGroupCount = 0;
+    folderGroupCount = 0;
+    write(HEADER);
+  }
+  
+  private static String escape(Object value) {
+    String str = value.toString();
+    if (str.indexOf(',') >= 0 || str.indexOf('"') >= 0 || 
+        str.indexOf('\n') >= 0 || str.indexOf('\r') >= 0) {
+      return '"' + str.replace("\"", "\"\"") + '"';
+    } else {
+      return str;
+    }
+  }
+  
+  @Override
+  public synchronized void duplicateFiles(int groupId, List<File> files) {
+    Iterator<File> it = files.iterator();
+    while (it.hasNext()) {
+      write("duplicate," + groupId + ',' + escape(it.next()) + ",,,,\n");
+    }
+  }
+  
+  @Override
+  public synchronized void hardLinks(List<File> files) {
+    int groupId = hardLinkGroupCount++;
+    Iterator<File> it = files.iterator();
+    while (it.hasNext()) {
+      write("hard_link," + groupId + ',' + escape(it.next()) + ",,,,\n");
+    }
+  }
+  
+  @Override
+  public synchronized void identicalFolders(List<File> folders) {
+    int groupId = folderGroupCount++;
+    Iterator<File> it = folders.iterator();
+    while (it.hasNext()) {
+      write("identical_folder," + groupId + ',' + escape(it.next()) + ",,,,\n");
+    }
+  }
+  
+  @Override
+  public synchronized void similarFolders(SimilarFolderFinder.FolderSimilarity similarity) {
+    write("similar_folder,," + escape(similarity.getFolder()) + ',' + 
+            escape(similarity.getContainingFolder()) + ',' + similarity.getContainment() + ',' + 
+            similarity.getJaccard() + ",\n");
+  }
+  
+  @Override
+  public synchronized void statistic(String name, long value) {
+    write("statistic,," + escape(name) + ",,,," + value + '\n');
+  }
+}
@@ -0,0 +1,313 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.threadly.concurrent.SubmitterScheduler;
+import org.threadly.concurrent.wrapper.limiter.ExecutorLimiter;
+
+/**
+ * Provides a separate executor for each storage device, so that each device can be limited to
+ * the concurrency it handles best.  Spinning disks lose most of their throughput once several
+ * readers compete for the heads, while SSD's and network mounts need many reads in flight.
+ * All devices still share the same scheduler threads.
+ * 
+ * Devices are identified by the unix device id when available.  On platforms which do not
+ * provide it, sub directories are assumed to be on the same device as the directory the crawl
+ * started from.
+ */
+public class DeviceScheduler {
+  public static final int AUTO_CONCURRENCY = 0;
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int ROTATIONAL_CONCURRENCY = 1;
+  private static final int NETWORK_CONCURRENCY = 16;
+  private static final int SOLID_STATE_CONCURRENCY = CPU_COUNT * 2;
+  private static final Set<String> NETWORK_STORE_TYPES;
+  
+  static {
+    Set<String> types = new HashSet<String>();
+    types.addAll(Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb3", "afs", "9p",
+                               "ceph", "glusterfs", "fuse.sshfs", "fuse.glusterfs"));
+    
+    NETWORK_STORE_TYPES = Collections.unmodifiableSet(types);
+  }
+  
+  private final SubmitterScheduler scheduler;
+  private final int concurrency;
+  private final int maxQueuedUnits;
+  private final ConcurrentMap<Object, Device> devices;
+  private volatile boolean deviceIdSupported;
+  
+  /**
+   * Constructs a new device scheduler.
+   * 
+   * @param scheduler Scheduler all devices share the threads of
+   * @param concurrency Concurrency for every device, or {@link #AUTO_CONCURRENCY} to pick per device type
+   * @param maxQueuedUnits Maximum work units waiting or running per device before submission blocks
+   */
+  public DeviceScheduler(SubmitterScheduler scheduler, int concurrency, int maxQueuedUnits) {
+    if (concurrency < 0) {
+      throw new IllegalArgumentException("Concurrency can not be negative: " + concurrency);
+    }
+    
+    this.scheduler = scheduler;
+    this.concurrency = concurrency;
+    this.maxQueuedUnits = maxQueuedUnits;
+    this.devices = new ConcurrentHashMap<Object, Device>();
+    this.deviceIdSupported = true;
+  }
+  
+  /**
+   * Returns the device a directory is stored on.  When a parent device is provided, it will be
+   * returned without any lookup if the device can not be identified cheaply.
+   * 
+   * @param directory Directory to get the device for
+   * @param parentDevice Device of the parent directory, or null if this is a root directory
+   * @return Device the directory is stored on
+   * @throws IOException Thrown if the directory attributes could not be read
+   */
+  public Device getDevice(File directory, Device parentDevice) throws IOException {
+    Object deviceId = null;
+    if (deviceIdSupported) {
+      try {
+        deviceId = Files.getAttribute(directory.toPath(), "unix:dev");
+      } catch (UnsupportedOperationException e) {
+        deviceIdSupported = false;
+      } catch (IllegalArgumentException e) {
+        deviceIdSupported = false;
+      }
+    }
+    
+    return getDevice(directory, deviceId, parentDevice);
+  }
+  
+  /**
+   * Returns the device a directory is stored on, using the device id from attributes which 
+   * have already been read.  This avoids reading the directory attributes again.
+   * 
+   * @param directory Directory to get the device for
+   * @param attributes Attributes of the directory
+   * @param parentDevice Device of the parent directory, or null if this is a root directory
+   * @return Device the directory is stored on
+   * @throws IOException Thrown if the directory's file store could not be read
+   */
+  public Device getDevice(File directory, FileAttributes attributes, 
+                          Device parentDevice) throws IOException {
+    return getDevice(directory, attributes.getDeviceId(), parentDevice);
+  }
+  
+  private Device getDevice(File directory, Object deviceId, 
+                           Device parentDevice) throws IOException {
+    Path path = directory.toPath();
+    if (deviceId == null) {
+      if (parentDevice != null) {
+        return parentDevice;
+      }
+      deviceId = Files.getFileStore(path);
+    } else if (parentDevice != null && parentDevice.id.equals(deviceId)) {
+      return parentDevice;
+    }
+    
+    Device result = devices.get(deviceId);
+    if (result == null) {
+      result = makeDevice(deviceId, Files.getFileStore(path));
+      Device existingDevice = devices.putIfAbsent(deviceId, result);
+      if (existingDevice != null) {
+        result = existingDevice;
+      } else {
+        System.out.println("Reading " + result.name + " with concurrency of " +
+                             result.executor.getMaxConcurrency() +
+                             (result.orderByInode ? ", in inode order" : ""));
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns all devices which have been seen so far.
+   * 
+   * @return Collection of known devices
+   */
+  public Collection<Device> getDevices() {
+    return Collections.unmodifiableCollection(devices.values());
+  }
+  
+  private Device makeDevice(Object deviceId, FileStore store) {
+    boolean rotational = isRotational(store);
+    int deviceConcurrency = concurrency;
+    if (deviceConcurrency == AUTO_CONCURRENCY) {
+      if (NETWORK_STORE_TYPES.contains(store.type())) {
+        deviceConcurrency = NETWORK_CONCURRENCY;
+      } else if (rotational) {
+        deviceConcurrency = ROTATIONAL_CONCURRENCY;
+      } else {
+        deviceConcurrency = SOLID_STATE_CONCURRENCY;
+      }
+    }
+    
+    final WorkUnitTracker tracker = new WorkUnitTracker(maxQueuedUnits);
+    Metrics.registerGauge("device." + store.name() + ".outstandingUnits", new GaugeInterface() {
+      @Override
+      public long getValue() {
+        return tracker.getSubmittedCount() - tracker.getCompletedCount();
+      }
+    });
+    
+    return new Device(deviceId, store.name() + " (" + store.type() + ")",
+                      new ExecutorLimiter(scheduler, deviceConcurrency),
+                      tracker, rotational);
+  }
+  
+  /**
+   * Checks with the linux block layer if a store is on a spinning disk.  If this can not be
+   * determined false is returned.
+   */
+  private static boolean isRotational(FileStore store) {
+    String name = store.name();
+    if (! name.startsWith("/dev/")) {
+      return false;
+    }
+    
+    try {
+      // resolves names like /dev/mapper/root to dm-0
+      Path sysBlock = Paths.get("/sys/class/block").resolve(Paths.get(name).toRealPath().getFileName());
+      Path rotationalFile = sysBlock.resolve("queue/rotational");
+      if (! Files.exists(rotationalFile)) {
+        // partitions only have a queue on their parent device
+        rotationalFile = sysBlock.toRealPath().getParent().resolve("queue/rotational");
+      }
+      List<String> lines = Files.readAllLines(rotationalFile, StandardCharsets.US_ASCII);
+      
+      return ! lines.isEmpty() && "1".equals(lines.get(0).trim());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+  
+  /**
+   * Sorts files by their inode number, so that reading them in order keeps the disk heads
+   * moving in one direction where possible.  Inode numbers are taken from the attributes, 
+   * which are sorted along with the files.  If inode numbers are not available both lists 
+   * are left in their original (directory listing) order.
+   * 
+   * @param files Files to sort
+   * @param attributes Attributes for each file, in the same order as the files
+   */
+  public static void sortByInode(List<File> files, List<FileAttributes> attributes) {
+    final long[] inodes = new long[files.size()];
+    Integer[] order = new Integer[files.size()];
+    for (int i = 0; i < inodes.length; i++) {
+      inodes[i] = attributes.get(i).getInode();
+      if (inodes[i] < 0) {
+        return;
+      }
+      order[i] = i;
+    }
+    
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Long.compare(inodes[i1], inodes[i2]);
+      }
+    });
+    File[] sortedFiles = new File[order.length];
+    FileAttributes[] sortedAttributes = new FileAttributes[order.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedFiles[i] = files.get(order[i]);
+      sortedAttributes[i] = attributes.get(order[i]);
+    }
+    for (int i = 0; i < sortedFiles.length; i++) {
+      files.set(i, sortedFiles[i]);
+      attributes.set(i, sortedAttributes[i]);
+    }
+  }
+  
+  /**
+   * A single storage device, which work units for files on it should be executed through.
+   */
+  public static class Device {
+    private final Object id;
+    private final String name;
+    private final ExecutorLimiter executor;
+    private final WorkUnitTracker tracker;
+    private final boolean orderByInode;
+    
+    private Device(Object id, String name, ExecutorLimiter executor,
+                   WorkUnitTracker tracker, boolean orderByInode) {
+      this.id = id;
+      this.name = name;
+      this.executor = executor;
+      this.tracker = tracker;
+      this.orderByInode = orderByInode;
+    }
+    
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * Executes a work unit on this device's executor.  This blocks if the device already has
+     * the maximum number of units queued.
+     * 
+     * @param unit Work unit to execute
+     */
+    public void execute(final Runnable unit) {
+      tracker.unitSubmitted();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            unit.run();
+          } finally {
+            tracker.unitCompleted();
+          }
+        }
+      });
+    }
+    
+    /**
+     * Executes a task which helps a work unit already running on this device, like hashing 
+     * part of a large file.  The task is limited by the device's concurrency like any work 
+     * unit, but it is not counted as one, and this never blocks.  The unit which waits on 
+     * it may be what the queue is waiting for.
+     * 
+     * @param task Task to execute
+     */
+    public void executeHelper(Runnable task) {
+      executor.execute(task);
+    }
+    
+    /**
+     * Returns how many work units (and helpers) may run at once on this device.
+     * 
+     * @return Maximum concurrency of the device
+     */
+    public int getMaxConcurrency() {
+      return executor.getMaxConcurrency();
+    }
+    
+    /**
+     * Returns true if files on this device should be read in inode order.
+     * 
+     * @return true if this is a spinning disk
+     */
+    public boolean isOrderedByInode() {
+      return orderByInode;
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package com.jentfoo.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.threadly.util.Clock;
+
+/**
+ * Persistent store of file digests so that files which have not changed since a previous
+ * run do not need to be read again.  Both the full digest and the sample digest of a file
+ * are kept, so that an unchanged file does not need to be read to pass the sample tier
+ * either.  A cached digest is only used if the path, length, modification time and file key
+ * (inode on most systems) all still match.
+ *
+ * Entries are checked against the attributes read while crawling with
+ * {@link #validate(String, BasicFileAttributes)}.  Digests are then looked up by path alone,
+ * so files which were held back without their attributes can still be found.
+ *
+ * The file format is a small header followed by one record per digest.  New digests are
+ * appended as they are produced, and the file is rewritten (compacted) on close once
+ * enough superseded or stale records have accumulated.  Records which have not been seen
+ * by any run within the eviction age are dropped during compaction.
+ *
+ * Paths are expected to be canonical, which is the case for files provided from
+ * {@link FileCrawler}.
+ */
+public class DigestCache {
+  private static final int MAGIC = 0x4A464443; // JFDC
+  private static final int FORMAT_VERSION = 2;
+  private static final long DEFAULT_EVICTION_AGE = 1000L * 60 * 60 * 24 * 30;  // 30 days
+  
+  private final File cacheFile;
+  private final String algorithm;
+  private final long evictionAge;
+  private final long runTime;
+  private final ConcurrentMap<String, CacheEntry> entries;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+  private long lastCompactionTime;
+  private int garbageRecordCount;
+  private DataOutputStream appendOut;
+  
+  public DigestCache(File cacheFile, String algorithm) throws IOException {
+    this(cacheFile, algorithm, DEFAULT_EVICTION_AGE);
+  }
+  
+  /**
+   * Constructs a new cache, loading any existing entries from the provided file.  If the
+   * file does not exist, or was written for a different algorithm, the cache will start
+   * empty.
+   *
+   * @param cacheFile File to load from and persist to
+   * @param algorithm Name of the digest algorithm being cached
+   * @param evictionAge Time in milliseconds an entry can go unseen before being dropped
+   * @throws IOException Thrown if the cache file exists but can not be read
+   */
+  public DigestCache(File cacheFile, String algorithm, long evictionAge) throws IOException {
+    this.cacheFile = cacheFile;
+    this.algorithm = algorithm;
+    this.evictionAge = evictionAge;
+    this.runTime = Clock.accurateTimeMillis();
+    this.entries = new ConcurrentHashMap<String, CacheEntry>();
+    this.hitCount = new AtomicLong();
+    this.missCount = new AtomicLong();
+    
+    if (! load()) {
+      // start fresh, or rewrite past a corrupt tail so appends remain readable
+      compact();
+    }
+    appendOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, true)));
+  }
+  
+  /**
+   * Loads the existing cache file.
+   *
+   * @return false if the file needs to be rewritten before it can be appended to
+   */
+  private boolean load() throws IOException {
+    if (! cacheFile.exists()) {
+      return false;
+    }
+    
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION ||
+          ! in.readUTF().equals(algorithm)) {
+        return false;
+      }
+      lastCompactionTime = in.readLong();
+      while (true) {
+        String path;
+        try {
+          path = in.readUTF();
+        } catch (EOFException e) {
+          return true;  // clean end of file
+        }
+        long length = in.readLong();
+        long modifiedTime = in.readLong();
+        String fileKey = in.readUTF();
+        long lastSeen = in.readLong();
+        byte[] digest = readBytes(in);
+        byte[] sample = readBytes(in);
+        
+        if (entries.put(path, new CacheEntry(length, modifiedTime, fileKey,
+                                             lastSeen, digest, sample)) != null) {
+          garbageRecordCount++;
+        }
+      }
+    } catch (EOFException e) {
+      // partially written record from an interrupted run
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+  
+  /**
+   * Checks the entry for a file against its current attributes.  A matching entry can then
+   * be used for the rest of this run, an entry which no longer matches is dropped.
+   *
+   * @param path Canonical path of the file
+   * @param attributes Current attributes of the file
+   */
+  public void validate(String path, BasicFileAttributes attributes) {
+    CacheEntry ce = entries.get(path);
+    if (ce == null || ce.validated) {
+      return;
+    } else if (ce.matches(attributes)) {
+      ce.lastSeen = runTime;
+      ce.validated = true;
+    } else if (entries.remove(path, ce)) {
+      synchronized (this) {
+        garbageRecordCount++;
+      }
+    }
+  }
+  
+  /**
+   * Looks for a digest of the full contents which was previously stored for this file.  Only
+   * entries which have been validated (or stored) during this run are used.
+   *
+   * @param path Canonical path of the file
+   * @return Digest bytes, or null if none is cached
+   */
+  public byte[] getDigest(String path) {
+    CacheEntry ce = entries.get(path);
+    return countLookup(ce != null && ce.validated ? ce.digest : null);
+  }
+  
+  /**
+   * Checks if a digest of the full contents can be provided by {@link #getDigest(String)},
+   * without counting it as a hit or a miss.
+   *
+   * @param path Canonical path of the file
+   * @return true if the digest is cached
+   */
+  public boolean hasDigest(String path) {
+    CacheEntry ce = entries.get(path);
+    return ce != null && ce.validated && ce.digest != null;
+  }
+  
+  /**
+   * Looks for a sample digest which was previously stored for this file.  Only entries which
+   * have been validated (or stored) during this run are used.
+   *
+   * @param path Canonical path of the file
+   * @return Sample digest bytes, or null if none is cached
+   */
+  public byte[] getSample(String path) {
+    CacheEntry ce = entries.get(path);
+    return countLookup(ce != null && ce.validated ? ce.sample : null);
+  }
+  
+  private byte[] countLookup(byte[] result) {
+    if (result != null) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+    }
+    return result;
+  }
+  
+  /**
+   * Stores a digest for a file, appending it to the cache file.  A sample digest already
+   * stored for the same version of the file is kept.
+   *
+   * @param path Canonical path of the file
+   * @param attributes Attributes of the file read before the digest was produced
+   * @param digest Digest bytes of the file contents
+   * @throws IOException Thrown if the record could not be appended
+   */
+  public void putDigest(String path, BasicFileAttributes attributes,
+                        byte[] digest) throws IOException {
+    put(path, attributes, digest, null);
+  }
+  
+  /**
+   * Stores a sample digest for a file, appending it to the cache file.  A full digest already
+   * stored for the same version of the file is kept.
+   *
+   * @param path Canonical path of the file
+   * @param attributes Attributes of the file read before the sample was taken
+   * @param sample Digest bytes of the sampled blocks
+   * @throws IOException Thrown if the record could not be appended
+   */
+  public void putSample(String path, BasicFileAttributes attributes,
+                        byte[] sample) throws IOException {
+    put(path, attributes, null, sample);
+  }
+  
+  private synchronized void put(String path, BasicFileAttributes attributes,
+                                byte[] digest, byte[] sample) throws IOException {
+    CacheEntry existing = entries.get(path);
+    if (existing != null && existing.matches(attributes)) {
+      if (digest == null) {
+        digest = existing.digest;
+      }
+      if (sample == null) {
+        sample = existing.sample;
+      }
+    }
+    CacheEntry ce = new CacheEntry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                                   fileKeyString(attributes), runTime, digest, sample);
+    ce.validated = true;
+    if (entries.put(path, ce) != null) {
+      garbageRecordCount++;
+    }
+    writeRecord(appendOut, path, ce);
+  }
+  
+  public long getHitCount() {
+    return hitCount.get();
+  }
+  
+  public long getMissCount() {
+    return missCount.get();
+  }
+  
+  /**
+   * Flushes any pending records, and compacts the file if enough of it is no longer
+   * useful.  The cache should not be used after this has been called.
+   *
+   * @throws IOException Thrown if the file could not be written
+   */
+  public synchronized void close() throws IOException {
+    appendOut.close();
+    
+    if (garbageRecordCount > entries.size() / 2 ||
+        runTime - lastCompactionTime > evictionAge / 4) {
+      // periodic compaction also persists the last seen time of entries which were hit
+      compact();
+    }
+  }
+  
+  private synchronized void compact() throws IOException {
+    File tempFile = new File(cacheFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(algorithm);
+      out.writeLong(runTime);
+      
+      Iterator<Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Entry<String, CacheEntry> e = it.next();
+        if (runTime - e.getValue().lastSeen > evictionAge) {
+          it.remove();
+        } else {
+          writeRecord(out, e.getKey(), e.getValue());
+        }
+      }
+    } finally {
+      out.close();
+    }
+    
+    try {
+      Files.move(tempFile.toPath(), cacheFile.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    lastCompactionTime = runTime;
+    garbageRecordCount = 0;
+  }
+  
+  private static void writeRecord(DataOutputStream out, String path,
+                                  CacheEntry ce) throws IOException {
+    out.writeUTF(path);
+    out.writeLong(ce.length);
+    out.writeLong(ce.modifiedTime);
+    out.writeUTF(ce.fileKey);
+    out.writeLong(ce.lastSeen);
+    writeBytes(out, ce.digest);
+    writeBytes(out, ce.sample);
+  }
+  
+  /**
+   * Writes an optional digest, an empty digest is written for null.
+   */
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeShort(0);
+    } else {
+      out.writeShort(bytes.length);
+      out.write(bytes);
+    }
+  }
+  
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readUnsignedShort();
+    if (length == 0) {
+      return null;
+    }
+    byte[] result = new byte[length];
+    in.readFully(result);
+    return result;
+  }
+  
+  private static String fileKeyString(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey == null ? "" : fileKey.toString();
+  }
+  
+  private static class CacheEntry {
+    private final long length;
+    private final long modifiedTime;
+    private final String fileKey;
+    private final byte[] digest;
+    private final byte[] sample;
+    private volatile long lastSeen;
+    private volatile boolean validated;
+    
+    private CacheEntry(long length, long modifiedTime, String fileKey,
+                       long lastSeen, byte[] digest, byte[] sample) {
+      this.length = length;
+      this.modifiedTime = modifiedTime;
+      this.fileKey = fileKey;
+      this.lastSeen = lastSeen;
+      this.digest = digest;
+      this.sample = sample;
+      validated = false;
+    }
+    
+    private boolean matches(BasicFileAttributes attributes) {
+      return length == attributes.size() &&
+               modifiedTime == attributes.lastModifiedTime().toMillis() &&
+               fileKey.equals(fileKeyString(attributes));
+    }
+  }
+}
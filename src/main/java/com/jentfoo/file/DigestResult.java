@@ -0,0 +1,118 @@
+package com.jentfoo.file;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Immutable result of hashing file contents, usable as a map key.  Digests which are 128 bits 
+ * are held as two primitive longs, to avoid the overhead of a separate array per file.  Any 
+ * other digest length is held as a byte array.
+ */
+public abstract class DigestResult {
+  private static final int LONG_FORM_BYTE_LENGTH = 16;
+  
+  /**
+   * Constructs a result from the raw bytes of a digest.
+   * 
+   * @param bytes Digest bytes, the array should not be modified after this call
+   * @return Result which represents the digest
+   */
+  public static DigestResult fromBytes(byte[] bytes) {
+    if (bytes.length == LONG_FORM_BYTE_LENGTH) {
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      return new LongDigestResult(bb.getLong(), bb.getLong());
+    } else {
+      return new BytesDigestResult(bytes);
+    }
+  }
+  
+  /**
+   * Constructs a result from a 128 bit digest.
+   * 
+   * @param high Most significant 64 bits of the digest
+   * @param low Least significant 64 bits of the digest
+   * @return Result which represents the digest
+   */
+  public static DigestResult fromLongs(long high, long low) {
+    return new LongDigestResult(high, low);
+  }
+  
+  private DigestResult() {
+    // only the implementations below
+  }
+  
+  /**
+   * Returns the raw digest bytes, in the same form as they were originally provided.
+   * 
+   * @return A new array containing the digest
+   */
+  public abstract byte[] toBytes();
+  
+  private static class BytesDigestResult extends DigestResult {
+    private final byte[] bytes;
+    private final int hashCode;
+    
+    private BytesDigestResult(byte[] bytes) {
+      this.bytes = bytes;
+      this.hashCode = Arrays.hashCode(bytes);
+    }
+    
+    @Override
+    public byte[] toBytes() {
+      return bytes.clone();
+    }
+    
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof BytesDigestResult) {
+        BytesDigestResult dr = (BytesDigestResult)o;
+        
+        return MessageDigest.isEqual(bytes, dr.bytes);
+      } else {
+        return false;
+      }
+    }
+  }
+  
+  private static class LongDigestResult extends DigestResult {
+    private final long high;
+    private final long low;
+    
+    private LongDigestResult(long high, long low) {
+      this.high = high;
+      this.low = low;
+    }
+    
+    @Override
+    public byte[] toBytes() {
+      return ByteBuffer.allocate(LONG_FORM_BYTE_LENGTH).putLong(high).putLong(low).array();
+    }
+    
+    @Override
+    public int hashCode() {
+      // bits are already well distributed
+      return (int)low;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof LongDigestResult) {
+        LongDigestResult dr = (LongDigestResult)o;
+        
+        return high == dr.high && low == dr.low;
+      } else {
+        return false;
+      }
+    }
+  }
+}
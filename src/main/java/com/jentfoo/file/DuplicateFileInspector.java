@@ -1,366 +1,877 @@
 package com.jentfoo.file;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.threadly.concurrent.SubmitterScheduler;
 import org.threadly.util.Clock;
 import org.threadly.util.ExceptionUtils;
 
-public class DuplicateFileInspector implements FileListenerInterface {
-  private static final String ALGORITHM = "SHA-256";
-  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-  private static final int DUPLICATE_FOLDER_THREADING_THRESHOLD = Math.max(CPU_COUNT, 50);
+public class DuplicateFileInspector implements FileAttributesListenerInterface, 
+                                               FileContentListenerInterface {
+  public static final String DEFAULT_HASH_FUNCTION = "SHA-256";
+  public static final String CONFIRM_NONE = "none";
+  public static final String CONFIRM_DIGEST = "digest";
+  public static final String CONFIRM_BYTES = "bytes";
+  public static final String CONFIRM_LOCKSTEP = "lockstep";
+  private static final String CONFIRMATION_HASH_FUNCTION = "SHA-256";
+  private static final int SAMPLE_BLOCK_SIZE = 1024 * 4;
+  private static final int SAMPLE_BLOCK_COUNT = 3;  // head, middle and tail
+  private static final long MIN_SAMPLE_FILE_SIZE = (long)SAMPLE_BLOCK_SIZE * SAMPLE_BLOCK_COUNT * 2;
+  private static final Histogram SAMPLE_NANOS = Metrics.histogram("hash.sampleNanos");
+  private static final Histogram FILE_NANOS = Metrics.histogram("hash.fileNanos");
+  private static final AtomicLong FILES_HASHED = Metrics.counter("hash.files");
+  private static final AtomicLong BYTES_HASHED = Metrics.counter("hash.bytes");
+  private static final AtomicLong BYTES_SAMPLED = Metrics.counter("hash.sampleBytes");
+  private static final AtomicLong CONFIRM_MILLIS = Metrics.counter("stage.confirmMillis");
+  private static final AtomicLong FOLDER_ANALYSIS_MILLIS = Metrics.counter("stage.folderAnalysisMillis");
   
-  private final ConcurrentMap<DigestResult, List<File>> digestToFile;
-  private final ConcurrentMap<File, DigestResult> fileToDigest;
+  private final PathTable pathTable;
+  private final DigestCache digestCache;
+  private final FileReaderInterface fileReader;
+  private final AsyncFileReader asyncReader;
+  private final HashFunctionInterface hashFunction;
+  private final String confirmMode;
+  private final ThreadLocal<HasherInterface> hashers;
+  private final Queue<HasherInterface> idleAsyncHashers;
+  private final ThreadLocal<HasherInterface> confirmationHashers;
+  private final ThreadLocal<CountingContentHandler> countingHandlers;
+  private final LockstepVerifier lockstepVerifier;
+  private final ConcurrentMap<Object, List<File>> lockstepCandidates;
+  private final ConcurrentMap<Object, List<File>> hardLinks;
+  private final ConcurrentMap<Integer, DigestResult> prehashedDigests;
+  private final LongCollisionTier sizeTier;
+  private final CollisionTier<DigestResult> sampleTier;
+  private final DuplicateIndex duplicateIndex;
+  private volatile double minFolderContainment;
+  private volatile ReportSinkInterface reportSink;
+  private volatile ChunkedFileDigester chunkedDigester;
   
   public DuplicateFileInspector() {
-    digestToFile = new ConcurrentHashMap<DigestResult, List<File>>();
-    fileToDigest = new ConcurrentHashMap<File, DigestResult>();
+    this(new PathTable(), null, FileReaders.makeReader(FileReaders.STRATEGY_CHANNEL, 
+                                      FileReaders.DEFAULT_BLOCK_SIZE), 
+         HashFunctions.makeHashFunction(DEFAULT_HASH_FUNCTION), CONFIRM_NONE);
+  }
+  
+  /**
+   * Constructs a new inspector which will check the provided cache for a digest before 
+   * reading a file.
+   * 
+   * Non-cryptographic hash functions can be paired with a confirmation mode, in which case 
+   * groups of duplicates are verified again before they are reported.  Confirming with 
+   * "digest" will re-hash the group with SHA-256, confirming with "bytes" will compare the 
+   * files contents directly.
+   * 
+   * Confirming with "lockstep" will instead skip the full digest all together.  Files which 
+   * make it past the size and sample tiers are compared directly in 
+   * {@link #confirmDuplicates(SubmitterScheduler)} using a {@link LockstepVerifier}.
+   * 
+   * If the file reader is an {@link AsyncFileReader}, full digests are read asynchronously, 
+   * with each file in flight hashed by its own hasher as its reads complete.  Files are then 
+   * only added to the duplicate index once their read completes, so 
+   * {@link #awaitDigests()} must be invoked before the duplicates are inspected.
+   * 
+   * @param pathTable Table to store paths in, ideally the one files are crawled into
+   * @param digestCache Cache to use, or null to always read files
+   * @param fileReader Reader to provide file contents for full digests
+   * @param hashFunction Hash function to identify file contents with
+   * @param confirmMode One of "none", "digest", "bytes" or "lockstep"
+   */
+  public DuplicateFileInspector(PathTable pathTable, DigestCache digestCache, 
+                                FileReaderInterface fileReader, 
+                                final HashFunctionInterface hashFunction, String confirmMode) {
+    if (! CONFIRM_NONE.equals(confirmMode) && ! CONFIRM_DIGEST.equals(confirmMode) && 
+        ! CONFIRM_BYTES.equals(confirmMode) && ! CONFIRM_LOCKSTEP.equals(confirmMode)) {
+      throw new IllegalArgumentException("Unknown confirmation mode: " + confirmMode);
+    }
+    
+    this.pathTable = pathTable;
+    this.digestCache = digestCache;
+    this.fileReader = fileReader;
+    this.asyncReader = fileReader instanceof AsyncFileReader ? (AsyncFileReader)fileReader : null;
+    this.hashFunction = hashFunction;
+    this.confirmMode = confirmMode;
+    this.hashers = new ThreadLocal<HasherInterface>() {
+      @Override
+      protected HasherInterface initialValue() {
+        return hashFunction.makeHasher();
+      }
+    };
+    this.idleAsyncHashers = new ConcurrentLinkedQueue<HasherInterface>();
+    this.confirmationHashers = new ThreadLocal<HasherInterface>() {
+      @Override
+      protected HasherInterface initialValue() {
+        return HashFunctions.makeHashFunction(CONFIRMATION_HASH_FUNCTION).makeHasher();
+      }
+    };
+    this.countingHandlers = new ThreadLocal<CountingContentHandler>() {
+      @Override
+      protected CountingContentHandler initialValue() {
+        return new CountingContentHandler();
+      }
+    };
+    this.lockstepVerifier = new LockstepVerifier();
+    this.lockstepCandidates = new ConcurrentHashMap<Object, List<File>>();
+    this.hardLinks = new ConcurrentHashMap<Object, List<File>>();
+    this.prehashedDigests = new ConcurrentHashMap<Integer, DigestResult>();
+    sizeTier = new LongCollisionTier();
+    sampleTier = new CollisionTier<DigestResult>();
+    duplicateIndex = new DuplicateIndex(pathTable, hashFunction.getDigestLength());
+    minFolderContainment = SimilarFolderFinder.DEFAULT_MIN_CONTAINMENT;
+    reportSink = null;
+    chunkedDigester = null;
+  }
+  
+  /**
+   * Sets the sink to report results to.  Duplicate groups are reported as soon as they are 
+   * known.  Without confirmation that is while files are still being handled, otherwise it 
+   * is as each group is confirmed.  This must be set before files are handled for duplicates 
+   * to be reported as they are found.
+   * 
+   * @param reportSink Sink to report results to
+   */
+  public void setReportSink(ReportSinkInterface reportSink) {
+    this.reportSink = reportSink;
+    
+    if (CONFIRM_NONE.equals(confirmMode)) {
+      duplicateIndex.setGroupListener(new DuplicateGroupListenerInterface() {
+        @Override
+        public void filesGrouped(int groupId, int[] fileIds) {
+          reportGroup(groupId, getGroupFiles(fileIds));
+        }
+      });
+    }
+  }
+  
+  /**
+   * Sets a digester to identify files above its threshold by, instead of a digest of their 
+   * whole contents.  This lets a single very large file be hashed by several threads at once.  
+   * Any digest cache must be for {@link ChunkedFileDigester#getName()}, and this must be set 
+   * before files are handled.  Confirmation (other than lockstep) still reads files whole.
+   * 
+   * @param chunkedDigester Digester for large files, or null to always digest files whole
+   */
+  public void setChunkedDigester(ChunkedFileDigester chunkedDigester) {
+    this.chunkedDigester = chunkedDigester;
+  }
+  
+  /**
+   * Sets the portion of a folder's files which must be duplicated in another folder for the 
+   * folder to be reported as partially duplicated.
+   * 
+   * @param minFolderContainment Minimum containment, above 0 and at most 1
+   */
+  public void setMinFolderContainment(double minFolderContainment) {
+    if (minFolderContainment <= 0 || minFolderContainment > 1) {
+      throw new IllegalArgumentException("Containment must be above 0 and at most 1: " + 
+                                           minFolderContainment);
+    }
+    
+    this.minFolderContainment = minFolderContainment;
+  }
+  
+  /**
+   * Returns how many files were never hashed because no other file had the same size.
+   * 
+   * @return Number of files skipped for having a unique size
+   */
+  public int getUniqueSizeCount() {
+    return sizeTier.getEliminatedCount();
+  }
+  
+  /**
+   * Returns how many files were never fully hashed because their sampled blocks (head, 
+   * middle and tail) did not match any other file of the same size.
+   * 
+   * @return Number of files skipped for having unique sampled blocks
+   */
+  public int getUniqueSampleCount() {
+    return sampleTier.getEliminatedCount();
+  }
+  
+  /**
+   * Returns how many files were fully hashed, but ended up with a digest which no other 
+   * file has.
+   * 
+   * @return Number of files found unique after a full digest
+   */
+  public int getUniqueDigestCount() {
+    int result = 0;
+    int groupCount = duplicateIndex.getGroupCount();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) == 1) {
+        result++;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns sets of paths which are hard links to the same file.  Only the first path seen 
+   * for a file is read and checked for duplicates, the rest are only reported here.
+   * 
+   * @return Lists of paths which link to the same file
+   */
+  public List<List<File>> getHardLinks() {
+    List<List<File>> result = new ArrayList<List<File>>();
+    Iterator<List<File>> it = hardLinks.values().iterator();
+    while (it.hasNext()) {
+      List<File> links = it.next();
+      synchronized (links) {
+        if (links.size() > 1) {
+          result.add(new ArrayList<File>(links));
+        }
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Blocks until every full digest which is being read asynchronously has been added.  This 
+   * only needs to be invoked when using an {@link AsyncFileReader}, and once all files have 
+   * been handled.  {@link #confirmDuplicates(SubmitterScheduler)} and 
+   * {@link #reportDuplicateAnalysis(SubmitterScheduler)} will invoke this first.
+   */
+  public void awaitDigests() {
+    if (asyncReader != null) {
+      asyncReader.awaitIdle();
+    }
   }
   
   public List<List<File>> getDuplicateFiles() {
     List<List<File>> result = new LinkedList<List<File>>();
     
-    Iterator<List<File>> it = digestToFile.values().iterator();
-    while (it.hasNext()) {
-      List<File> l = it.next();
-      if (l.size() > 1) {
-        result.add(l);
+    int groupCount = duplicateIndex.getGroupCount();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) > 1) {
+        result.add(getGroupFiles(duplicateIndex.getGroupMembers(i)));
       }
     }
     
     return result;
   }
   
-  public String getDuplicateAnalysis(SubmitterScheduler scheduler) throws InterruptedException {
-    long startTime = Clock.accurateTimeMillis();
-    char newLine = '\n';
-    List<List<File>> duplicateFiles = getDuplicateFiles();
-    StringBuilder result = new StringBuilder();
-    if (duplicateFiles.isEmpty()) {
-      return result.toString();
+  private List<File> getGroupFiles(int[] fileIds) {
+    List<File> result = new ArrayList<File>(fileIds.length);
+    for (int fileId : fileIds) {
+      result.add(duplicateIndex.getFile(fileId));
     }
     
-    result.append("Duplicate files: ").append(newLine);
+    return result;
+  }
+  
+  /**
+   * Verifies every group of duplicate files again using the confirmation mode this 
+   * inspector was constructed with.  Groups which turn out to have different contents are 
+   * split.  In lockstep mode this is where candidate groups are compared for the first 
+   * time.  This should only be invoked once all files have been handled.
+   * 
+   * @param scheduler Scheduler to verify groups in parallel on
+   */
+  public void confirmDuplicates(SubmitterScheduler scheduler) {
+    awaitDigests();
+    if (CONFIRM_NONE.equals(confirmMode)) {
+      return;
+    }
     
-    Iterator<List<File>> dupIt = duplicateFiles.iterator();
-    while (dupIt.hasNext()) {
-      List<File> dupFiles = dupIt.next();
-      result.append(dupFiles.toString()).append(newLine);
+    long startTime = Clock.accurateForwardProgressingMillis();
+    try {
+      if (CONFIRM_LOCKSTEP.equals(confirmMode)) {
+        verifyLockstepCandidates(scheduler);
+      } else {
+        confirmGroups(scheduler);
+      }
+    } finally {
+      CONFIRM_MILLIS.addAndGet(Clock.accurateForwardProgressingMillis() - startTime);
     }
-
-    Map<FolderContainer, Boolean> completeFolders = lookForDuplicatedFolders(scheduler, duplicateFiles);
-    result.append(newLine);
-    if (completeFolders.isEmpty()) {
-      result.append("No folders are completely duplicated by others");
-    } else {
-      List<FolderContainer> equalFolders = new LinkedList<FolderContainer>();
-      List<FolderContainer> partiallyDuplicatedFolders = new LinkedList<FolderContainer>();
-      {
-        Iterator<Entry<FolderContainer, Boolean>> it = completeFolders.entrySet().iterator();
-        while (it.hasNext()) {
-          Entry<FolderContainer, Boolean> e = it.next();
-          if (e.getValue()) {
-            equalFolders.add(e.getKey());
-          } else {
-            partiallyDuplicatedFolders.add(e.getKey());
+  }
+  
+  private void confirmGroups(SubmitterScheduler scheduler) {
+    // only existing groups need confirming, split off groups are already confirmed
+    int groupCount = duplicateIndex.getGroupCount();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) > 1) {
+        final int groupId = i;
+        futures.add(scheduler.submit(new Runnable() {
+          @Override
+          public void run() {
+            confirmGroup(groupId);
           }
-        }
-      }
-      if (! equalFolders.isEmpty()) {
-        result.append("Folders which contents are exactly equal:").append(newLine);
-        outputFolderList(result, equalFolders);
-        
-        if (! partiallyDuplicatedFolders.isEmpty()) {
-          result.append(newLine);
-        }
-      }
-      if (! partiallyDuplicatedFolders.isEmpty()) {
-        result.append("Folders which are PARTIALLY duplicated (first folder is fully duplicated by second folder):").append(newLine);
-        outputFolderList(result, partiallyDuplicatedFolders);
+        }));
       }
     }
-    result.append(newLine);
-    result.append("Folder analysis took ")
-          .append(Clock.accurateTimeMillis() - startTime)
-          .append("ms to process");
     
-    return result.toString();
+    System.out.println("\nConfirming " + futures.size() + " duplicate groups");
+    FutureUtil.blockTillAllDone(futures);
   }
   
-  private static void outputFolderList(StringBuilder sb, List<FolderContainer> folders) {
-    Iterator<FolderContainer> it = folders.iterator();
+  private void verifyLockstepCandidates(SubmitterScheduler scheduler) {
+    List<Future<?>> futures = new ArrayList<Future<?>>(lockstepCandidates.size());
+    Iterator<List<File>> it = lockstepCandidates.values().iterator();
     while (it.hasNext()) {
-        FolderContainer fc = it.next();
-        sb.append(fc.folder1).append('\t').append(fc.folder2)
-          .append('\n');
+      final List<File> candidates = it.next();
+      it.remove();
+      futures.add(scheduler.submit(new Runnable() {
+        @Override
+        public void run() {
+          Iterator<List<File>> it = lockstepVerifier.split(candidates).iterator();
+          while (it.hasNext()) {
+            // contents are verified identical, so the group needs no digest
+            List<File> group = it.next();
+            int groupId = duplicateIndex.addGroup(group);
+            if (group.size() > 1) {
+              reportGroup(groupId, group);
+            }
+          }
+        }
+      }));
     }
+    
+    System.out.println("\nComparing " + futures.size() + " candidate groups in lockstep");
+    FutureUtil.blockTillAllDone(futures);
   }
   
-  private Map<FolderContainer, Boolean> lookForDuplicatedFolders(SubmitterScheduler scheduler, 
-                                                                 List<List<File>> duplicateFiles) {
-    Map<FolderContainer, Boolean> completeFolders = new HashMap<FolderContainer, Boolean>();
-
-    System.out.println("\nDoing folder analysis for duplicate count of: " + duplicateFiles.size());
-    if (duplicateFiles.size() < DUPLICATE_FOLDER_THREADING_THRESHOLD) {
-      new DuplicateFolderExaminer(false, duplicateFiles, 
-                                  completeFolders).run();
-    } else {  // there is enough analysis to do, might as well make it multi-threaded
-      int taskCount;
-      if (duplicateFiles.size() > 5000) {
-        taskCount = Math.min(CPU_COUNT * 10, 100);
-      } else if (duplicateFiles.size() > DUPLICATE_FOLDER_THREADING_THRESHOLD * 2) {
-        taskCount = CPU_COUNT * 2;
-      } else {  // if we are barely above our threading threshold, no need to submit more tasks
-        taskCount = CPU_COUNT;
+  private void confirmGroup(int groupId) {
+    int[] fileIds = duplicateIndex.getGroupMembers(groupId);
+    List<File> files = getGroupFiles(fileIds);
+    List<List<File>> subGroups;
+    if (CONFIRM_DIGEST.equals(confirmMode)) {
+      subGroups = splitByConfirmationDigest(files);
+    } else {
+      subGroups = lockstepVerifier.split(files);
+    }
+    if (subGroups.size() == 1 && subGroups.get(0).size() == files.size()) {
+      reportGroup(groupId, files);  // confirmed
+      return;
+    }
+    
+    // map the files back to their ids, files are only equal by instance to the group's files
+    Map<File, Integer> fileToId = new IdentityHashMap<File, Integer>();
+    for (int i = 0; i < fileIds.length; i++) {
+      fileToId.put(files.get(i), fileIds[i]);
+    }
+    List<int[]> subGroupIds = new ArrayList<int[]>(subGroups.size());
+    Iterator<List<File>> it = subGroups.iterator();
+    while (it.hasNext()) {
+      List<File> subGroup = it.next();
+      int[] subFileIds = new int[subGroup.size()];
+      for (int i = 0; i < subFileIds.length; i++) {
+        subFileIds[i] = fileToId.get(subGroup.get(i));
       }
-      
-      int listsPerThread = duplicateFiles.size() / taskCount;
-      
-      List<Future<?>> futures = new ArrayList<Future<?>>(taskCount);
-      int previousEndIndex = 0;
-      for (int i = 0; i < taskCount; i++) {
-        final List<List<File>> threadFiles;
-        if (i == taskCount - 1) {
-          threadFiles = duplicateFiles.subList(previousEndIndex, 
-                                               duplicateFiles.size());
-        } else {
-          threadFiles = duplicateFiles.subList(previousEndIndex, 
-                                               previousEndIndex + listsPerThread);
+      subGroupIds.add(subFileIds);
+    }
+    int[] splitGroupIds = duplicateIndex.splitGroup(groupId, subGroupIds);
+    for (int i = 0; i < splitGroupIds.length; i++) {
+      if (subGroups.get(i).size() > 1) {
+        reportGroup(splitGroupIds[i], subGroups.get(i));
+      }
+    }
+  }
+  
+  private void reportGroup(int groupId, List<File> files) {
+    ReportSinkInterface sink = reportSink;
+    if (sink != null) {
+      sink.duplicateFiles(groupId, files);
+    }
+  }
+  
+  private List<List<File>> splitByConfirmationDigest(List<File> files) {
+    Map<DigestResult, List<File>> groups = new HashMap<DigestResult, List<File>>();
+    List<List<File>> result = new ArrayList<List<File>>();
+    Iterator<File> it = files.iterator();
+    while (it.hasNext()) {
+      File f = it.next();
+      try {
+        DigestResult dr = makeFileDigest(f, confirmationHashers.get());
+        List<File> group = groups.get(dr);
+        if (group == null) {
+          group = new ArrayList<File>(2);
+          groups.put(dr, group);
+          result.add(group);
         }
-        Future<?> f = scheduler.submit(new DuplicateFolderExaminer(true, threadFiles, 
-                                                                   completeFolders));
-        
-        futures.add(f);
+        group.add(f);
+      } catch (IOException e) {
+        handleReadException(e);
+        // can't be confirmed, so separate it from the rest
+        result.add(Collections.singletonList(f));
       }
-      
-      // block till all have completed
-      FutureUtil.blockTillAllDone(futures);
     }
     
-    return completeFolders;
+    return result;
   }
-
-  @Override
-  public void handleFile(File file) {
-    try {
-      DigestResult dr = makeFileDigest(file);
-      
-      // duplicates should be rare, so we assume there is none
-      List<File> dupFiles = new LinkedList<File>();
-      List<File> existingList = digestToFile.putIfAbsent(dr, dupFiles);
-      if (existingList != null) {
-        dupFiles = existingList;
+  
+  /**
+   * Confirms any remaining duplicates, then reports statistics and folder analysis to the 
+   * report sink.  Duplicate files which were not already reported while files were being 
+   * handled are reported first.  This should only be invoked once all files have been 
+   * handled.
+   * 
+   * @param scheduler Scheduler to run confirmation and folder analysis on
+   * @throws IOException Thrown if the report sink could not be flushed
+   */
+  public void reportDuplicateAnalysis(SubmitterScheduler scheduler) throws IOException {
+    ReportSinkInterface sink = reportSink;
+    if (sink == null) {
+      throw new IllegalStateException("No report sink set");
+    }
+    
+    confirmDuplicates(scheduler);
+    prehashedDigests.clear(); // never promoted, so never needed
+    
+    int hardLinkCount = 0;
+    List<int[]> hardLinkNodes = new ArrayList<int[]>();
+    Iterator<List<File>> linkIt = getHardLinks().iterator();
+    while (linkIt.hasNext()) {
+      List<File> links = linkIt.next();
+      hardLinkCount += links.size() - 1;
+      sink.hardLinks(links);
+      int[] linkNodes = new int[links.size()];
+      for (int i = 0; i < linkNodes.length; i++) {
+        linkNodes[i] = pathTable.addPath(links.get(i), false);
       }
-      dupFiles.add(file);
-      fileToDigest.put(file, dr);
-    } catch (Exception e) {
-      if (e instanceof FileNotFoundException) {
-        // ignore
-      } else {
-        ExceptionUtils.handleException(e);
+      hardLinkNodes.add(linkNodes);
+    }
+    
+    long startTime = Clock.accurateTimeMillis();
+    sink.statistic("hardLinksSkipped", hardLinkCount);
+    sink.statistic("eliminatedBySize", getUniqueSizeCount());
+    sink.statistic("eliminatedBySample", getUniqueSampleCount());
+    sink.statistic("eliminatedByContents", getUniqueDigestCount());
+    int duplicateGroupCount = 0;
+    int groupCount = duplicateIndex.getGroupCount();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) > 1) {
+        duplicateGroupCount++;
       }
     }
+    sink.statistic("duplicateGroups", duplicateGroupCount);
+    if (duplicateGroupCount == 0 && hardLinkCount == 0) {
+      sink.flush();
+      return;
+    }
+    
+    System.out.println("\nDoing folder analysis for duplicate count of: " + duplicateGroupCount);
+    DuplicateFolderFinder folderFinder = new DuplicateFolderFinder(pathTable, duplicateIndex);
+    folderFinder.setHardLinks(hardLinkNodes);
+    Iterator<List<File>> it = folderFinder.findDuplicateFolders(scheduler).iterator();
+    while (it.hasNext()) {
+      sink.identicalFolders(it.next());
+    }
+    sink.flush();
+    Iterator<SimilarFolderFinder.FolderSimilarity> similarIt = 
+        new SimilarFolderFinder(pathTable, duplicateIndex, minFolderContainment).findSimilarFolders(scheduler, 
+                                                                                                   folderFinder).iterator();
+    while (similarIt.hasNext()) {
+      sink.similarFolders(similarIt.next());
+    }
+    long folderAnalysisMillis = Clock.accurateTimeMillis() - startTime;
+    FOLDER_ANALYSIS_MILLIS.addAndGet(folderAnalysisMillis);
+    sink.statistic("folderAnalysisMillis", folderAnalysisMillis);
+    sink.flush();
   }
   
-  private DigestResult makeFileDigest(File file) throws IOException, 
-                                                        NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance(ALGORITHM);
-    InputStream in = new FileInputStream(file);
+  @Override
+  public void handleFile(File file) {
     try {
-      byte[] buffer = new byte[8192];
-      int readCount;
-      while ((readCount = in.read(buffer)) > -1) {
-        md.update(buffer, 0, readCount);
-      }
-
-      byte[] digest = md.digest();
-      return new DigestResult(digest);
-    } finally {
-      in.close();
+      handleFile(file, FileAttributes.read(file.toPath(), true));
+    } catch (IOException e) {
+      handleReadException(e);
     }
   }
   
-  private static class FolderContainer {
-    private final File folder1;
-    private final File folder2;
-    private final int hashCode;
-    
-    private FolderContainer(File folder1, File folder2) {
-      this.folder1 = folder1;
-      this.folder2 = folder2;
-      this.hashCode = folder1.hashCode() ^ folder2.hashCode();
+  @Override
+  public void handleFile(File file, FileAttributes attributes) {
+    if (! isFirstLink(file, attributes)) {
+      return; // same contents as a path we already have, reading it again gains nothing
     }
     
-    @Override
-    public int hashCode() {
-      return hashCode;
+    if (digestCache != null) {
+      // checked now while the crawled attributes are at hand, held back files are looked up by path
+      digestCache.validate(file.getPath(), attributes);
     }
     
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      } else if (o instanceof FolderContainer) {
-        FolderContainer fc = (FolderContainer)o;
-        return fc.folder1.equals(folder1) && 
-                 fc.folder2.equals(folder2);
-      } else {
-        return false;
-      }
+    // a file can only have a duplicate if another file has the same length
+    long length = attributes.size();
+    int nodeId = pathTable.addPath(file, false);
+    for (int releasedId : sizeTier.offer(length, nodeId)) {
+      sampleFile(getTierFile(releasedId, nodeId, file), 
+                 getTierAttributes(releasedId, nodeId, attributes), length);
     }
   }
   
-  private static class DigestResult {
-    private final byte[] bytes;
-    private final int hashCode;
+  /**
+   * Returns the file for a node released from a collision tier.  Held back files are only 
+   * kept as node ids, so their {@link File} is rebuilt from the path table.
+   */
+  private File getTierFile(int releasedId, int offeredId, File offeredFile) {
+    return releasedId == offeredId ? offeredFile : pathTable.getFile(releasedId);
+  }
+  
+  /**
+   * Returns the crawled attributes for a node released from a collision tier, or null for a 
+   * held back file since only its node id is kept.
+   */
+  private static FileAttributes getTierAttributes(int releasedId, int offeredId, 
+                                                  FileAttributes offeredAttributes) {
+    return releasedId == offeredId ? offeredAttributes : null;
+  }
+  
+  /**
+   * Asks for the whole file if it will be digested as soon as it is handled.  That is the 
+   * case for files too small to be sampled, once another file of the same length has been 
+   * handled.  The read is then shared with the other content listeners, instead of the file 
+   * being read again for its digest.  Other files are only read once they collide.
+   */
+  @Override
+  public long getContentLength(File file, FileAttributes attributes) {
+    if (attributes.size() < MIN_SAMPLE_FILE_SIZE && shouldPrehash(file, attributes)) {
+      return Long.MAX_VALUE;
+    } else {
+      return 0;
+    }
+  }
+  
+  /**
+   * Hashes the file along with other content listeners, if the whole file is going to be read 
+   * anyways.  The digest is kept until the file is promoted past the cheaper tiers, so that 
+   * it never needs to be read again.  Digests are only kept for files whose size already 
+   * collided with another file, since files with a unique size are never promoted, and are 
+   * kept by path node id rather than path.
+   */
+  @Override
+  public ContentHandlerInterface startContent(File file, FileAttributes attributes, 
+                                              long readLength) {
+    if (readLength < attributes.size() || ! shouldPrehash(file, attributes)) {
+      return null;
+    }
     
-    private DigestResult(byte[] bytes) {
-      this.bytes = bytes;
-      this.hashCode = Arrays.hashCode(bytes);
+    return hashers.get();
+  }
+  
+  /**
+   * Checks if a file read whole for the content listeners should be hashed while it is read.  
+   * Files which are compared in lockstep, chunked, or have a cached digest never need a whole 
+   * digest.  Neither do files with a unique size, or other links to a file we already have, 
+   * since those are never promoted.
+   */
+  private boolean shouldPrehash(File file, FileAttributes attributes) {
+    long length = attributes.size();
+    Object fileKey = attributes.fileKey();
+    if (CONFIRM_LOCKSTEP.equals(confirmMode) || shouldChunk(length) || 
+        ! sizeTier.contains(length) || 
+        (attributes.getLinkCount() > 1 && fileKey != null && hardLinks.containsKey(fileKey))) {
+      return false;
+    } else if (digestCache != null) {
+      // content listeners are called before handleFile, so the entry may not be validated yet
+      digestCache.validate(file.getPath(), attributes);
+      return ! digestCache.hasDigest(file.getPath());
+    } else {
+      return true;
+    }
+  }
+  
+  @Override
+  public void finishContent(File file, ContentHandlerInterface handler, boolean wholeFile) {
+    HasherInterface hasher = (HasherInterface)handler;
+    if (wholeFile) {
+      prehashedDigests.put(pathTable.addPath(file, false), hasher.finish());
+      FILES_HASHED.incrementAndGet();
+    } else {
+      hasher.reset();
+    }
+  }
+  
+  /**
+   * Checks if this is the first path seen for a file.  Files with more than one hard link 
+   * are recorded by their file key (device and inode on most systems), so that any other 
+   * link to the same file can be recognized.
+   */
+  private boolean isFirstLink(File file, FileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    if (attributes.getLinkCount() < 2 || fileKey == null) {
+      return true;
     }
     
-    @Override
-    public int hashCode() {
-      return hashCode;
+    List<File> links = Collections.synchronizedList(new ArrayList<File>(2));
+    links.add(file);
+    List<File> existingLinks = hardLinks.putIfAbsent(fileKey, links);
+    if (existingLinks == null) {
+      return true;
+    } else {
+      existingLinks.add(file);
+      return false;
+    }
+  }
+  
+  private boolean shouldChunk(long length) {
+    ChunkedFileDigester digester = chunkedDigester;
+    return digester != null && digester.shouldChunk(length);
+  }
+  
+  /**
+   * Checks the file against other files of the same length by sampling a few blocks.  An 
+   * unchanged file's sample is taken from the cache instead of being read.
+   * 
+   * @param attributes Crawled attributes of the file, or null if it was held back
+   */
+  private void sampleFile(File file, FileAttributes attributes, long length) {
+    if (length < MIN_SAMPLE_FILE_SIZE) {
+      // small enough that sampling would read most of the file anyways
+      promoteFile(file, attributes, length, length);
+      return;
     }
     
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      } else if (o instanceof DigestResult) {
-        DigestResult dr = (DigestResult)o;
-        
-        return MessageDigest.isEqual(bytes, dr.bytes);
+    try {
+      DigestResult sample = null;
+      if (digestCache != null) {
+        byte[] cachedSample = digestCache.getSample(file.getPath());
+        if (cachedSample != null) {
+          sample = DigestResult.fromBytes(cachedSample);
+        } else {
+          BasicFileAttributes cacheAttributes = getCacheAttributes(file, attributes);
+          sample = makeSampleDigest(file, length);
+          digestCache.putSample(file.getPath(), cacheAttributes, sample.toBytes());
+        }
       } else {
-        return false;
+        sample = makeSampleDigest(file, length);
+      }
+      int nodeId = pathTable.addPath(file, false);
+      for (int releasedId : sampleTier.offer(sample, nodeId)) {
+        promoteFile(getTierFile(releasedId, nodeId, file), 
+                    getTierAttributes(releasedId, nodeId, attributes), length, sample);
       }
+    } catch (Exception e) {
+      handleReadException(e);
     }
   }
   
-  private class DuplicateFolderExaminer implements Runnable {
-    private final boolean isConcurrent;
-    private final List<List<File>> threadFiles;
-    private final Map<FolderContainer, Boolean> completeFolders;
-    
-    private DuplicateFolderExaminer(boolean isConcurrent, 
-                                    List<List<File>> threadFiles, 
-                                    Map<FolderContainer, Boolean> completeFolders) {
-      this.isConcurrent = isConcurrent;
-      this.threadFiles = threadFiles;
-      this.completeFolders = completeFolders;
-    }
-    
-    @Override
-    public void run() {
-      Iterator<List<File>> it = threadFiles.iterator();
-      while (it.hasNext()) {
-        List<File> files = it.next();
-        lookForDuplicatedFolders(isConcurrent, files, 
-                                 completeFolders);
+  /**
+   * Returns the attributes to store a new digest in the cache with.  These must be read 
+   * before the file is, so that a change while reading is never cached.  Only held back files 
+   * need to be read again, others use the attributes read while crawling.
+   */
+  private static BasicFileAttributes getCacheAttributes(File file, 
+                                                        FileAttributes attributes) throws IOException {
+    return attributes == null ? FileAttributes.read(file.toPath(), true) : attributes;
+  }
+  
+  /**
+   * Called for files which made it through the cheaper tiers and still collide with another 
+   * file.
+   * 
+   * @param file File to be identified by its full contents
+   * @param attributes Crawled attributes of the file, or null if it was held back
+   * @param length Length of the file
+   * @param tierKey Key the file collided on in the last tier it passed through
+   */
+  private void promoteFile(File file, FileAttributes attributes, long length, Object tierKey) {
+    if (CONFIRM_LOCKSTEP.equals(confirmMode)) {
+      List<File> candidates = lockstepCandidates.get(tierKey);
+      if (candidates == null) {
+        candidates = Collections.synchronizedList(new ArrayList<File>(2));
+        List<File> existingList = lockstepCandidates.putIfAbsent(tierKey, candidates);
+        if (existingList != null) {
+          candidates = existingList;
+        }
       }
+      candidates.add(file);
+    } else {
+      digestFile(file, attributes, length);
     }
-    
-    private void lookForDuplicatedFolders(boolean threadSafe, List<File> dupFiles, 
-                                          Map<FolderContainer, Boolean> completeFolders) {
-      Iterator<File> firstIt = dupFiles.iterator();
-      while (firstIt.hasNext()) {
-        File firstFile = firstIt.next();
-        File firstParent = firstFile.getParentFile();
-        File[] parentContents = FileUtils.getFolderContents(firstParent);
-        boolean isFilesOnly = true;
-        for (File f : parentContents) {
-          if (f.isDirectory()) {
-            isFilesOnly = false;
-            break;
-          }
+  }
+  
+  private void digestFile(File file, FileAttributes attributes, long length) {
+    try {
+      DigestResult dr = prehashedDigests.remove(pathTable.addPath(file, false));
+      if (dr != null) {
+        // read along with another content listener, while the crawled attributes were current
+        if (digestCache != null && attributes != null) {
+          digestCache.putDigest(file.getPath(), attributes, dr.toBytes());
         }
-        if (isFilesOnly) {
-          Iterator<File> fIt = dupFiles.iterator();
-          while (fIt.hasNext()) {
-            File nextDupFile = fIt.next();
-            if (nextDupFile == firstFile) { // skip the same file
-              continue;
-            }
-            File nextDupParent = nextDupFile.getParentFile();
-
-            // skip if the parent folders are the same
-            if (firstParent.getAbsolutePath().equals(nextDupParent.getAbsolutePath())) {
-              continue;
-            }
-            FolderContainer possibleContainer = new FolderContainer(firstParent, nextDupParent);
-            
-            if (threadSafe) {
-              synchronized (completeFolders) {
-                if (completeFolders.containsKey(possibleContainer)) {
-                  continue;
-                }
-              }
-            } else {
-              if (completeFolders.containsKey(possibleContainer)) {
-                continue;
-              }
-            }
-            
-            File[] nextDupParentContents = FileUtils.getFolderContents(nextDupParent);
-            boolean allHaveMatch = true;
-            for (File pf : parentContents) {
-              DigestResult dr = fileToDigest.get(pf);
-              boolean hasMatch = false;
-              for (File npf : nextDupParentContents) {
-                DigestResult dr2 = fileToDigest.get(npf);
-                if (dr2 != null && dr2.equals(dr)) {
-                  hasMatch = true;
-                  break;
-                }
-              }
-              if (! hasMatch) {
-                allHaveMatch = false;
-                break;
-              }
-            }
-            
-            if (allHaveMatch) {
-              FolderContainer reverseContainer = new FolderContainer(possibleContainer.folder2, 
-                                                                     possibleContainer.folder1);
-              if (threadSafe) {
-                synchronized (completeFolders) {
-                  if (completeFolders.containsKey(reverseContainer)) {
-                    completeFolders.put(reverseContainer, true);
-                  } else if (! completeFolders.containsKey(possibleContainer)) {
-                    completeFolders.put(possibleContainer, false);
-                  }
-                }
-              } else {
-                if (completeFolders.containsKey(reverseContainer)) {
-                    completeFolders.put(reverseContainer, true);
-                } else { // no need to check again
-                  completeFolders.put(possibleContainer, false);
-                }
-              }
-            }
-          }
+        duplicateIndex.add(dr, file);
+        return;
+      }
+      BasicFileAttributes cacheAttributes = null;
+      if (digestCache != null) {
+        byte[] cachedDigest = digestCache.getDigest(file.getPath());
+        if (cachedDigest != null) {
+          duplicateIndex.add(DigestResult.fromBytes(cachedDigest), file);
+          return;
         }
+        cacheAttributes = getCacheAttributes(file, attributes);
       }
+      
+      if (shouldChunk(length)) {
+        addDigest(file, cacheAttributes, makeChunkedDigest(file, length));
+      } else if (asyncReader == null) {
+        addDigest(file, cacheAttributes, makeFileDigest(file));
+      } else {
+        digestFileAsync(file, attributes, cacheAttributes);
+      }
+    } catch (Exception e) {
+      handleReadException(e);
+    }
+  }
+  
+  /**
+   * Adds a digest which was just produced from the file's contents to the index, and to the 
+   * cache if there is one.
+   * 
+   * @param attributes Attributes read before the digest was produced, or null without a cache
+   */
+  private void addDigest(File file, BasicFileAttributes attributes, 
+                         DigestResult dr) throws IOException {
+    if (attributes != null) {
+      digestCache.putDigest(file.getPath(), attributes, dr.toBytes());
+    }
+    duplicateIndex.add(dr, file);
+  }
+  
+  /**
+   * Starts reading the file for a full digest, returning without waiting for it.  The hasher 
+   * is only used by this file until its read completes, since completions for different files 
+   * may run in parallel on any thread.
+   * 
+   * @param attributes Crawled attributes to find the file's device with, or null if held back
+   * @param cacheAttributes Attributes to cache the digest with, or null without a cache
+   */
+  private void digestFileAsync(File file, FileAttributes attributes, 
+                               final BasicFileAttributes cacheAttributes) {
+    HasherInterface idleHasher = idleAsyncHashers.poll();
+    final HasherInterface hasher = idleHasher == null ? hashFunction.makeHasher() : idleHasher;
+    final long startNanos = System.nanoTime();
+    asyncReader.read(file, attributes, hasher, new FileReadCallbackInterface() {
+      @Override
+      public void readComplete(File file, long byteCount) {
+        try {
+          DigestResult dr = hasher.finish();
+          FILE_NANOS.record(System.nanoTime() - startNanos);
+          FILES_HASHED.incrementAndGet();
+          BYTES_HASHED.addAndGet(byteCount);
+          addDigest(file, cacheAttributes, dr);
+        } catch (Exception e) {
+          handleReadException(e);
+        } finally {
+          idleAsyncHashers.offer(hasher);
+        }
+      }
+      
+      @Override
+      public void readFailed(File file, Throwable t) {
+        hasher.reset();
+        idleAsyncHashers.offer(hasher);
+        handleReadException(t);
+      }
+    });
+  }
+  
+  private static void handleReadException(Throwable e) {
+    if (e instanceof FileNotFoundException || e instanceof NoSuchFileException) {
+      // ignore
+    } else {
+      ExceptionUtils.handleException(e);
+    }
+  }
+  
+  private DigestResult makeSampleDigest(File file, long length) throws IOException {
+    long startNanos = System.nanoTime();
+    HasherInterface hasher = hashers.get();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] buffer = new byte[SAMPLE_BLOCK_SIZE];
+      long lastBlockStart = length - SAMPLE_BLOCK_SIZE;
+      for (int i = 0; i < SAMPLE_BLOCK_COUNT; i++) {
+        raf.seek((lastBlockStart / (SAMPLE_BLOCK_COUNT - 1)) * i);
+        raf.readFully(buffer);
+        hasher.handleContent(ByteBuffer.wrap(buffer));
+      }
+      
+      // include the length so samples from different sized files can never collide
+      ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+      lengthBuffer.putLong(length).flip();
+      hasher.handleContent(lengthBuffer);
+      
+      DigestResult result = hasher.finish();
+      SAMPLE_NANOS.record(System.nanoTime() - startNanos);
+      BYTES_SAMPLED.addAndGet(SAMPLE_BLOCK_SIZE * SAMPLE_BLOCK_COUNT);
+      
+      return result;
+    } finally {
+      hasher.reset();
+      raf.close();
+    }
+  }
+  
+  private DigestResult makeFileDigest(File file) throws IOException {
+    return makeFileDigest(file, hashers.get());
+  }
+  
+  private DigestResult makeChunkedDigest(File file, long length) throws IOException {
+    long startNanos = System.nanoTime();
+    DigestResult result = chunkedDigester.digest(file, length);
+    FILE_NANOS.record(System.nanoTime() - startNanos);
+    FILES_HASHED.incrementAndGet();
+    BYTES_HASHED.addAndGet(length);
+    
+    return result;
+  }
+  
+  // package-private so it can be measured by the benchmarks in src/jmh
+  DigestResult makeFileDigest(File file, HasherInterface hasher) throws IOException {
+    long startNanos = System.nanoTime();
+    // count what is read, rather than asking the file system for the length again
+    CountingContentHandler countingHandler = countingHandlers.get();
+    countingHandler.delegate = hasher;
+    countingHandler.byteCount = 0;
+    try {
+      fileReader.read(file, countingHandler);
+      
+      DigestResult result = hasher.finish();
+      FILE_NANOS.record(System.nanoTime() - startNanos);
+      FILES_HASHED.incrementAndGet();
+      BYTES_HASHED.addAndGet(countingHandler.byteCount);
+      
+      return result;
+    } finally {
+      countingHandler.delegate = null;
+      // in case we did not complete
+      hasher.reset();
+    }
+  }
+  
+  /**
+   * Passes content on to another handler, counting the bytes as they go by.
+   */
+  private static class CountingContentHandler implements ContentHandlerInterface {
+    private ContentHandlerInterface delegate = null;
+    private long byteCount = 0;
+    
+    @Override
+    public void handleContent(ByteBuffer buffer) {
+      byteCount += buffer.remaining();
+      delegate.handleContent(buffer);
     }
   }
 }
@@ -0,0 +1,292 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.SubmitterScheduler;
+
+/**
+ * Finds directories with identical contents at any depth, in linear time.  Every directory is
+ * given a content id, derived from the sorted content ids of its children (files use the id
+ * of their duplicate group).  Directories are processed bottom up, one depth at a time, so
+ * that the ids of all children are known before their parent is processed.  Directories
+ * with the same content id have identical trees, the same as comparing a Merkle hash but
+ * with no risk of collision since ids are assigned by exact comparison.
+ * 
+ * Names are not part of the content, so trees with the same files under different names are
+ * still reported as equal.  A directory which contains any file without a duplicate can
+ * never match another directory, so it is marked unique without building its id.  Empty
+ * directories (or ones with only empty directories in them) are ignored.
+ */
+public class DuplicateFolderFinder {
+  private static final int UNIQUE = -1;
+  private static final int EMPTY = -2;
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int MIN_NODES_PER_TASK = 1024;
+  
+  private final PathTable pathTable;
+  private final DuplicateIndex duplicateIndex;
+  private final ConcurrentMap<ContentKey, Integer> contentIds;
+  private final AtomicInteger contentIdCount;
+  private final ChunkedIntArray nodeContentIds;
+  private List<int[]> hardLinks;
+  
+  public DuplicateFolderFinder(PathTable pathTable, DuplicateIndex duplicateIndex) {
+    this.pathTable = pathTable;
+    this.duplicateIndex = duplicateIndex;
+    this.contentIds = new ConcurrentHashMap<ContentKey, Integer>();
+    this.contentIdCount = new AtomicInteger();
+    this.nodeContentIds = new ChunkedIntArray();
+    this.hardLinks = Collections.emptyList();
+  }
+  
+  /**
+   * Sets the paths which are hard links to the same file.  Only the first path of each is in 
+   * the duplicate index, the rest are given the same content as the first, so folders holding 
+   * other links to a file can still match.  This must be set before 
+   * {@link #findDuplicateFolders(SubmitterScheduler)} is invoked.
+   * 
+   * @param hardLinks Path node ids linking to each file, starting with the indexed path
+   */
+  public void setHardLinks(List<int[]> hardLinks) {
+    this.hardLinks = hardLinks;
+  }
+  
+  /**
+   * Finds groups of directories with identical contents.  Only the top most directories are
+   * reported, a group is left out if all of its directories are within directories which are
+   * duplicated themselves.  This should only be invoked once all files have been grouped.
+   * 
+   * @param scheduler Scheduler to process each depth on in parallel
+   * @return Groups of directories which have identical contents
+   */
+  public List<List<File>> findDuplicateFolders(SubmitterScheduler scheduler) {
+    int nodeCount = pathTable.getNodeCount();
+    for (int i = 0; i < nodeCount; i++) {
+      nodeContentIds.set(i, UNIQUE);
+    }
+    // files share the id space with directories, by using the first ids for file groups
+    int groupCount = duplicateIndex.getGroupCount();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) > 1) {
+        for (int fileId : duplicateIndex.getGroupMembers(i)) {
+          nodeContentIds.set(duplicateIndex.getPathId(fileId), i);
+        }
+      }
+    }
+    contentIdCount.set(groupCount);
+    Iterator<int[]> linkIt = hardLinks.iterator();
+    while (linkIt.hasNext()) {
+      int[] links = linkIt.next();
+      int contentId = nodeContentIds.get(links[0]);
+      if (contentId == UNIQUE) {
+        // the links are each other's only duplicates
+        contentId = contentIdCount.getAndIncrement();
+      }
+      for (int nodeId : links) {
+        nodeContentIds.set(nodeId, contentId);
+      }
+    }
+    
+    List<int[]> levels = getDirectoryLevels();
+    for (int i = levels.size() - 1; i >= 0; i--) {
+      processLevel(scheduler, levels.get(i));
+    }
+    
+    return collectTopMostGroups(levels);
+  }
+  
+  /**
+   * Checks if two directories were found to have identical trees.  This is only accurate
+   * after {@link #findDuplicateFolders(SubmitterScheduler)} has completed.
+   * 
+   * @param folder1 Path node id of the first directory
+   * @param folder2 Path node id of the second directory
+   * @return true if both directories have identical contents
+   */
+  public boolean isSameContent(int folder1, int folder2) {
+    int contentId = nodeContentIds.get(folder1);
+    return contentId >= 0 && contentId == nodeContentIds.get(folder2);
+  }
+  
+  /**
+   * Breadth first walk of all directories, returning the directory ids at each depth.
+   */
+  private List<int[]> getDirectoryLevels() {
+    List<int[]> result = new ArrayList<int[]>();
+    int[] level = new int[] { PathTable.ROOT };
+    while (level.length > 0) {
+      int[] nextLevel = new int[16];
+      int nextCount = 0;
+      for (int nodeId : level) {
+        for (int childId : pathTable.getChildren(nodeId)) {
+          if (pathTable.isDirectory(childId)) {
+            if (nextCount == nextLevel.length) {
+              nextLevel = Arrays.copyOf(nextLevel, nextCount * 2);
+            }
+            nextLevel[nextCount++] = childId;
+          }
+        }
+      }
+      level = Arrays.copyOf(nextLevel, nextCount);
+      if (nextCount > 0) {
+        result.add(level);
+      }
+    }
+    
+    return result;
+  }
+  
+  private void processLevel(SubmitterScheduler scheduler, final int[] level) {
+    if (level.length < MIN_NODES_PER_TASK * 2) {
+      processNodes(level, 0, level.length);
+      return;
+    }
+    
+    int taskCount = Math.min(CPU_COUNT * 2, level.length / MIN_NODES_PER_TASK);
+    int nodesPerTask = level.length / taskCount;
+    List<Future<?>> futures = new ArrayList<Future<?>>(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      final int start = i * nodesPerTask;
+      final int end = i == taskCount - 1 ? level.length : start + nodesPerTask;
+      futures.add(scheduler.submit(new Runnable() {
+        @Override
+        public void run() {
+          processNodes(level, start, end);
+        }
+      }));
+    }
+    FutureUtil.blockTillAllDone(futures);
+  }
+  
+  private void processNodes(int[] level, int start, int end) {
+    for (int i = start; i < end; i++) {
+      int nodeId = level[i];
+      if (! pathTable.isListed(nodeId)) {
+        continue; // we don't know all of its contents
+      }
+      int[] children = pathTable.getChildren(nodeId);
+      int[] childContent = new int[children.length];
+      int contentCount = 0;
+      for (int childId : children) {
+        int contentId = nodeContentIds.get(childId);
+        if (contentId == UNIQUE) {
+          contentCount = -1;
+          break;
+        } else if (contentId != EMPTY) {
+          childContent[contentCount++] = contentId;
+        }
+      }
+      if (contentCount == 0) {
+        nodeContentIds.set(nodeId, EMPTY);
+      } else if (contentCount > 0) {
+        childContent = Arrays.copyOf(childContent, contentCount);
+        Arrays.sort(childContent);
+        nodeContentIds.set(nodeId, getContentId(new ContentKey(childContent)));
+      }
+    }
+  }
+  
+  private int getContentId(ContentKey key) {
+    Integer result = contentIds.get(key);
+    if (result == null) {
+      Integer newId = contentIdCount.getAndIncrement();
+      result = contentIds.putIfAbsent(key, newId);
+      if (result == null) {
+        result = newId;
+      }
+    }
+    
+    return result;
+  }
+  
+  private List<List<File>> collectTopMostGroups(List<int[]> levels) {
+    Map<Integer, List<Integer>> groups = new HashMap<Integer, List<Integer>>();
+    Iterator<int[]> it = levels.iterator();
+    while (it.hasNext()) {
+      for (int nodeId : it.next()) {
+        int contentId = nodeContentIds.get(nodeId);
+        if (contentId >= 0) {
+          List<Integer> group = groups.get(contentId);
+          if (group == null) {
+            group = new ArrayList<Integer>(2);
+            groups.put(contentId, group);
+          }
+          group.add(nodeId);
+        }
+      }
+    }
+    // only folders with a duplicate count, so single entry groups are dropped first
+    Iterator<List<Integer>> groupIt = groups.values().iterator();
+    while (groupIt.hasNext()) {
+      if (groupIt.next().size() < 2) {
+        groupIt.remove();
+      }
+    }
+    
+    List<List<File>> result = new ArrayList<List<File>>();
+    groupIt = groups.values().iterator();
+    while (groupIt.hasNext()) {
+      List<Integer> group = groupIt.next();
+      boolean topMost = false;
+      Iterator<Integer> nodeIt = group.iterator();
+      while (nodeIt.hasNext()) {
+        int parentContentId = nodeContentIds.get(pathTable.getParent(nodeIt.next()));
+        if (! groups.containsKey(parentContentId)) {
+          topMost = true;
+          break;
+        }
+      }
+      if (topMost) {
+        List<File> folders = new ArrayList<File>(group.size());
+        nodeIt = group.iterator();
+        while (nodeIt.hasNext()) {
+          folders.add(pathTable.getFile(nodeIt.next()));
+        }
+        result.add(folders);
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Sorted content ids of a directory's children.
+   */
+  private static class ContentKey {
+    private final int[] childContent;
+    private final int hashCode;
+    
+    private ContentKey(int[] childContent) {
+      this.childContent = childContent;
+      this.hashCode = Arrays.hashCode(childContent);
+    }
+    
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof ContentKey) {
+        ContentKey ck = (ContentKey)o;
+        return hashCode == ck.hashCode && Arrays.equals(childContent, ck.childContent);
+      } else {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.jentfoo.file;
+
+public interface DuplicateGroupListenerInterface {
+  /**
+   * Called when files are added to a group which then has more than one file.  When a group 
+   * first reaches two files both are provided, after that only the newly added file is.  
+   * This is called after the group's lock is released, so other threads adding files are 
+   * not blocked on the listener.  Calls for the same group are never concurrent, and arrive 
+   * in the order the files were added.  Calls for different groups may be concurrent.
+   * 
+   * @param groupId Id of the group the files were added to
+   * @param fileIds Ids of the files which are newly known to be duplicates
+   */
+  public void filesGrouped(int groupId, int[] fileIds);
+}
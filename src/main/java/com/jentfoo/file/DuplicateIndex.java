@@ -0,0 +1,386 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Compact index of files grouped by digest.  Files and groups are identified by integer ids,
+ * and all per file and per group state is kept in chunked primitive arrays rather than in
+ * objects.  Paths are kept in a shared {@link PathTable}.  Digests are only stored once per group, packed into longs.
+ * 
+ * Digest lookups use open addressing, split into segments which each have their own lock, so
+ * that inserts from many threads rarely contend.  Besides its path node, a file costs two ints, and a
+ * group costs its digest words plus four ints (the table slots at the maximum load factor).
+ * For SHA-256 that is under 64 bytes for a file with a unique digest, compared to several
+ * hundred bytes for map entries, lists and digest objects.
+ * 
+ * Groups can also be created without a digest (for files verified by direct comparison), and
+ * split once all files have been added.  Splitting or reading groups must not be done while
+ * files are still being added.
+ */
+public class DuplicateIndex {
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+  private static final int SEGMENT_COUNT = 64; // must be a power of 2
+  private static final int INITIAL_SEGMENT_CAPACITY = 256; // must be a power of 2
+  private static final float MAX_LOAD_FACTOR = 0.5f;
+  private static final int NO_FILE = -1;
+  
+  private final PathTable pathTable;
+  private final int digestWords;
+  private final Segment[] segments;
+  private final AtomicInteger fileCount;
+  private final AtomicInteger groupCount;
+  // per file state
+  private final ChunkedIntArray filePathIds;
+  private final ChunkedIntArray fileNexts;
+  // per group state
+  private final AtomicReferenceArray<long[]> groupDigests;
+  private final ChunkedIntArray groupHeads;
+  private final ChunkedIntArray groupSizes;
+  private volatile DuplicateGroupListenerInterface groupListener;
+  
+  /**
+   * Constructs a new index.
+   * 
+   * @param pathTable Table to store file paths in
+   * @param digestLength Length in bytes of the digests which will be added
+   */
+  public DuplicateIndex(PathTable pathTable, int digestLength) {
+    this.pathTable = pathTable;
+    digestWords = (digestLength + 7) / 8;
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+    fileCount = new AtomicInteger();
+    groupCount = new AtomicInteger();
+    filePathIds = new ChunkedIntArray();
+    fileNexts = new ChunkedIntArray();
+    groupDigests = new AtomicReferenceArray<long[]>(MAX_CHUNKS);
+    groupHeads = new ChunkedIntArray();
+    groupSizes = new ChunkedIntArray();
+    groupListener = null;
+  }
+  
+  /**
+   * Sets a listener to be told as soon as files added with
+   * {@link #add(DigestResult, File)} have a duplicate.
+   * 
+   * @param groupListener Listener to call, or null to remove the listener
+   */
+  public void setGroupListener(DuplicateGroupListenerInterface groupListener) {
+    this.groupListener = groupListener;
+  }
+  
+  /**
+   * Adds a file to the group for its digest, creating the group if this is the first file
+   * with the digest.  This is safe to call in parallel.
+   * 
+   * @param digest Digest of the file contents
+   * @param file File to add
+   * @return Id of the group the file was added to
+   */
+  public int add(DigestResult digest, File file) {
+    long[] words = toWords(digest);
+    int fileId = addFile(file);
+    // top bits of the first word pick the segment, the low bits pick the slot
+    Segment segment = segments[(int)(words[0] >>> 58) & (SEGMENT_COUNT - 1)];
+    DuplicateGroupListenerInterface listener = groupListener;
+    int groupId;
+    boolean grouped = false;
+    synchronized (segment) {
+      groupId = segment.findOrInsert(words);
+      linkFile(groupId, fileId);
+      
+      if (listener != null) {
+        // only queue the ids here, the listener may be slow (like writing a report)
+        int groupSize = groupSizes.get(groupId);
+        if (groupSize == 2) {
+          segment.pendingReports.add(new GroupedFiles(listener, groupId, getGroupMembers(groupId)));
+          grouped = true;
+        } else if (groupSize > 2) {
+          segment.pendingReports.add(new GroupedFiles(listener, groupId, new int[] { fileId }));
+          grouped = true;
+        }
+      }
+    }
+    if (grouped) {
+      segment.deliverReports();
+    }
+    
+    return groupId;
+  }
+  
+  /**
+   * Adds a group of files which are already known to be identical, without any digest.
+   * 
+   * @param files Files to group together
+   * @return Id of the new group
+   */
+  public int addGroup(Iterable<File> files) {
+    int groupId = newGroup(null);
+    for (File f : files) {
+      linkFile(groupId, addFile(f));
+    }
+    
+    return groupId;
+  }
+  
+  /**
+   * Splits a group into smaller groups.  The first sub group keeps the original group id (and
+   * digest), the rest are given new ids.  Files from the group which are not in any sub group
+   * are left out of every group.
+   * 
+   * @param groupId Id of the group to split
+   * @param subGroups File ids for each of the new groups
+   * @return Ids of the sub groups, in the same order they were provided
+   */
+  public int[] splitGroup(int groupId, List<int[]> subGroups) {
+    int[] result = new int[subGroups.size()];
+    Iterator<int[]> it = subGroups.iterator();
+    for (int i = 0; i < result.length; i++) {
+      int[] fileIds = it.next();
+      int subGroupId;
+      if (i == 0) {
+        subGroupId = groupId;
+        groupHeads.set(groupId, NO_FILE);
+        groupSizes.set(groupId, 0);
+      } else {
+        subGroupId = newGroup(null);
+      }
+      for (int fileId : fileIds) {
+        linkFile(subGroupId, fileId);
+      }
+      result[i] = subGroupId;
+    }
+    
+    return result;
+  }
+  
+  public int getFileCount() {
+    return fileCount.get();
+  }
+  
+  public int getGroupCount() {
+    return groupCount.get();
+  }
+  
+  public int getGroupSize(int groupId) {
+    return groupSizes.get(groupId);
+  }
+  
+  /**
+   * Returns the ids of all files in a group.
+   * 
+   * @param groupId Id of the group
+   * @return Array of file ids
+   */
+  public int[] getGroupMembers(int groupId) {
+    int[] result = new int[getGroupSize(groupId)];
+    int fileId = groupHeads.get(groupId);
+    for (int i = 0; i < result.length; i++) {
+      result[i] = fileId;
+      fileId = fileNexts.get(fileId);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns the {@link PathTable} node id for the provided file id.
+   * 
+   * @param fileId Id of the file
+   * @return Path node id of the file
+   */
+  public int getPathId(int fileId) {
+    return filePathIds.get(fileId);
+  }
+  
+  /**
+   * Constructs a {@link File} for the provided id.  Files are not retained by the index, so
+   * this will return a new instance each call.
+   * 
+   * @param fileId Id of the file
+   * @return File for the id
+   */
+  public File getFile(int fileId) {
+    return pathTable.getFile(filePathIds.get(fileId));
+  }
+  
+  private int addFile(File file) {
+    int fileId = fileCount.getAndIncrement();
+    filePathIds.set(fileId, pathTable.addPath(file, false));
+    
+    return fileId;
+  }
+  
+  private int newGroup(long[] words) {
+    int groupId = groupCount.getAndIncrement();
+    groupHeads.set(groupId, NO_FILE);
+    groupSizes.set(groupId, 0);
+    if (words != null) {
+      int wordIndex = groupId * digestWords;
+      for (int i = 0; i < digestWords; i++) {
+        setLong(groupDigests, wordIndex + i, words[i]);
+      }
+    }
+    
+    return groupId;
+  }
+  
+  /**
+   * Links the file as the head of the group.  Callers must ensure that only one thread
+   * modifies a given group at a time.
+   */
+  private void linkFile(int groupId, int fileId) {
+    fileNexts.set(fileId, groupHeads.get(groupId));
+    groupHeads.set(groupId, fileId);
+    groupSizes.set(groupId, groupSizes.get(groupId) + 1);
+  }
+  
+  private boolean digestEquals(int groupId, long[] words) {
+    int wordIndex = groupId * digestWords;
+    for (int i = 0; i < digestWords; i++) {
+      if (getLong(groupDigests, wordIndex + i) != words[i]) {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  private long[] toWords(DigestResult digest) {
+    byte[] bytes = digest.toBytes();
+    if (bytes.length > digestWords * 8) {
+      throw new IllegalArgumentException("Digest longer than index digest length: " + bytes.length);
+    }
+    ByteBuffer bb = ByteBuffer.wrap(bytes);
+    long[] result = new long[digestWords];
+    for (int i = 0; i < digestWords; i++) {
+      for (int j = 0; j < 8; j++) {
+        result[i] = (result[i] << 8) | (bb.hasRemaining() ? bb.get() & 0xFFL : 0);
+      }
+    }
+    
+    return result;
+  }
+  
+  private static long getLong(AtomicReferenceArray<long[]> chunks, int index) {
+    return chunks.get(index >>> CHUNK_BITS)[index & CHUNK_MASK];
+  }
+  
+  private static void setLong(AtomicReferenceArray<long[]> chunks, int index, long value) {
+    int chunkIndex = index >>> CHUNK_BITS;
+    long[] chunk = chunks.get(chunkIndex);
+    if (chunk == null) {
+      chunks.compareAndSet(chunkIndex, null, new long[CHUNK_SIZE]);
+      chunk = chunks.get(chunkIndex);
+    }
+    chunk[index & CHUNK_MASK] = value;
+  }
+  
+  /**
+   * Files newly found to be duplicates, waiting to be provided to the group listener.
+   */
+  private static class GroupedFiles {
+    private final DuplicateGroupListenerInterface listener;
+    private final int groupId;
+    private final int[] fileIds;
+    
+    private GroupedFiles(DuplicateGroupListenerInterface listener, int groupId, int[] fileIds) {
+      this.listener = listener;
+      this.groupId = groupId;
+      this.fileIds = fileIds;
+    }
+  }
+  
+  /**
+   * Open addressed table of group ids, only accessed while holding this segment's lock.
+   * 
+   * Reports for the group listener are queued while holding the lock, so they are in the 
+   * same order the files were linked.  They are delivered after the lock is released by 
+   * whichever thread finds no other thread delivering, so a group's reports are never 
+   * provided concurrently or out of order.
+   */
+  private class Segment {
+    private final Queue<GroupedFiles> pendingReports = new ConcurrentLinkedQueue<GroupedFiles>();
+    private final AtomicBoolean delivering = new AtomicBoolean(false);
+    private int[] slots = makeSlots(INITIAL_SEGMENT_CAPACITY);
+    private int size = 0;
+    
+    /**
+     * Provides queued reports to their listener, unless another thread is already doing so.  
+     * Must be called without holding this segment's lock.
+     */
+    private void deliverReports() {
+      // checked again after releasing, in case a report was queued just as delivery finished
+      while (! pendingReports.isEmpty() && delivering.compareAndSet(false, true)) {
+        try {
+          GroupedFiles report;
+          while ((report = pendingReports.poll()) != null) {
+            try {
+              report.listener.filesGrouped(report.groupId, report.fileIds);
+            } catch (Throwable t) {
+              ExceptionUtils.handleException(t);
+            }
+          }
+        } finally {
+          delivering.set(false);
+        }
+      }
+    }
+    
+    private int findOrInsert(long[] words) {
+      int mask = slots.length - 1;
+      int slot = (int)words[0] & mask;
+      while (true) {
+        int groupId = slots[slot];
+        if (groupId == NO_FILE) {
+          groupId = newGroup(words);
+          slots[slot] = groupId;
+          if (++size > slots.length * MAX_LOAD_FACTOR) {
+            resize();
+          }
+          return groupId;
+        } else if (digestEquals(groupId, words)) {
+          return groupId;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    
+    private void resize() {
+      int[] oldSlots = slots;
+      slots = makeSlots(oldSlots.length * 2);
+      int mask = slots.length - 1;
+      for (int groupId : oldSlots) {
+        if (groupId != NO_FILE) {
+          int slot = (int)getLong(groupDigests, groupId * digestWords) & mask;
+          while (slots[slot] != NO_FILE) {
+            slot = (slot + 1) & mask;
+          }
+          slots[slot] = groupId;
+        }
+      }
+    }
+    
+    private int[] makeSlots(int capacity) {
+      int[] result = new int[capacity];
+      Arrays.fill(result, NO_FILE);
+      return result;
+    }
+  }
+}
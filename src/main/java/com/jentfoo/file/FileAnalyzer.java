@@ -1,15 +1,55 @@
 package com.jentfoo.file;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.threadly.concurrent.PriorityScheduler;
 import org.threadly.concurrent.TaskPriority;
 
 public class FileAnalyzer {
   private static final boolean EXCLUDE_HIDDEN = true;
+  private static final int CRAWL_THREAD_COUNT = Integer.getInteger("jfa.crawlThreads", 
+                                                                   FileCrawler.CRAWL_THREAD_COUNT_DEFAULT);
+  private static final int MAX_QUEUED_UNITS = Integer.getInteger("jfa.maxQueuedUnits", 
+                                                                 FileCrawler.MAX_QUEUED_UNITS_DEFAULT);
+  private static final int DEVICE_CONCURRENCY = Integer.getInteger("jfa.deviceConcurrency", 
+                                                                   DeviceScheduler.AUTO_CONCURRENCY);
+  private static final boolean FOLLOW_LINKS = 
+      Boolean.parseBoolean(System.getProperty("jfa.followLinks", "true"));
+  private static final int METRICS_INTERVAL = Integer.getInteger("jfa.metricsInterval", 0);
+  private static final String METRICS_FILE = System.getProperty("jfa.metricsFile");
+  private static final String NAME_PATTERNS_FILE = System.getProperty("jfa.namePatterns");
+  private static final String FILTER_RULES_FILE = System.getProperty("jfa.filterRules");
+  private static final boolean DETECT_TYPES = 
+      Boolean.parseBoolean(System.getProperty("jfa.detectTypes", "false"));
+  private static final String DIGEST_CACHE_FILE = System.getProperty("jfa.digestCache");
+  private static final String READ_STRATEGY = System.getProperty("jfa.readStrategy", 
+                                                                 FileReaders.STRATEGY_CHANNEL);
+  private static final String HASH_FUNCTION = System.getProperty("jfa.hash", 
+                                                                 DuplicateFileInspector.DEFAULT_HASH_FUNCTION);
+  private static final String CONFIRM_MODE = System.getProperty("jfa.confirm", 
+                                                                DuplicateFileInspector.CONFIRM_NONE);
+  private static final int READ_BLOCK_SIZE = Integer.getInteger("jfa.readBlockSize", 
+                                                                FileReaders.DEFAULT_BLOCK_SIZE);
+  private static final int ASYNC_READS = Integer.getInteger("jfa.asyncReads", 
+                                                            AsyncFileReader.DEFAULT_MAX_IN_FLIGHT);
+  private static final int ASYNC_THREADS = Integer.getInteger("jfa.asyncThreads", 
+                                                              AsyncFileReader.DEFAULT_THREAD_COUNT);
+  private static final long CHUNKED_HASH_THRESHOLD = Long.getLong("jfa.chunkedHashThreshold", 0);
+  private static final int HASH_CHUNK_SIZE = Integer.getInteger("jfa.hashChunkSize", 
+                                                                ChunkedFileDigester.DEFAULT_CHUNK_SIZE);
+  private static final String REPORT_FORMAT = System.getProperty("jfa.reportFormat", 
+                                                                 ReportSinks.FORMAT_TEXT);
+  private static final String REPORT_FILE = System.getProperty("jfa.reportFile");
+  private static final double FOLDER_CONTAINMENT = 
+      Double.parseDouble(System.getProperty("jfa.folderContainment", 
+                                            Double.toString(SimilarFolderFinder.DEFAULT_MIN_CONTAINMENT)));
   
   public static void main(String args[]) {
     if (args.length == 0) {
@@ -37,24 +77,100 @@ public class FileAnalyzer {
         scheduler.prestartAllThreads();
       }
     });
+    DigestCache digestCache = null;
+    AbstractReportSink reportSink = null;
+    MetricsReporter metricsReporter = null;
+    OutputStream metricsOut = null;
     try {
-      FileCrawler fc = new FileCrawler(scheduler);
+      Metrics.registerMBean();
+      Metrics.registerGauge("scheduler.queuedTasks", new GaugeInterface() {
+        @Override
+        public long getValue() {
+          return scheduler.getQueuedTaskCount();
+        }
+      });
+      if (METRICS_INTERVAL > 0) {
+        metricsOut = METRICS_FILE == null ? System.err : new FileOutputStream(METRICS_FILE);
+        metricsReporter = new MetricsReporter(metricsOut);
+        metricsReporter.start(scheduler, METRICS_INTERVAL * 1000L);
+      }
+      if (REPORT_FILE == null) {
+        // shared with progress output, so records must be written whole
+        reportSink = ReportSinks.makeSink(REPORT_FORMAT, System.out, true);
+      } else {
+        reportSink = ReportSinks.makeSink(REPORT_FORMAT, new FileOutputStream(REPORT_FILE), false);
+      }
+      HashFunctionInterface hashFunction = HashFunctions.makeHashFunction(HASH_FUNCTION);
+      DeviceScheduler deviceScheduler = new DeviceScheduler(scheduler, DEVICE_CONCURRENCY, 
+                                                            MAX_QUEUED_UNITS);
+      ChunkedFileDigester chunkedDigester = null;
+      String digestName = hashFunction.getName();
+      if (CHUNKED_HASH_THRESHOLD > 0) {
+        chunkedDigester = new ChunkedFileDigester(deviceScheduler, hashFunction, 
+                                                  CHUNKED_HASH_THRESHOLD, HASH_CHUNK_SIZE, 
+                                                  READ_BLOCK_SIZE, threadCount);
+        digestName = chunkedDigester.getName();
+      }
+      if (DIGEST_CACHE_FILE != null) {
+        digestCache = new DigestCache(new File(DIGEST_CACHE_FILE), digestName);
+      }
+      FileCrawler fc = new FileCrawler(deviceScheduler, FileCrawler.MAX_FILES_PER_THREAD_DEFAULT, 
+                                       FileCrawler.MAX_SIZE_PER_THREAD_DEFAULT, CRAWL_THREAD_COUNT);
       
-      if (EXCLUDE_HIDDEN) {
+      fc.setFollowLinks(FOLLOW_LINKS);
+      if (FILTER_RULES_FILE != null) {
+        // rules replace the defaults, so hidden files are only excluded if a rule says so
+        FilterRules filterRules = FilterRules.load(new File(FILTER_RULES_FILE));
+        // registered as two filters, so names are checked before attributes are read
+        fc.addFilter(filterRules.getNameFilter());
+        fc.addFilter(filterRules.getAttributesFilter());
+      } else if (EXCLUDE_HIDDEN) {
         fc.addFilter(new HiddenFileFilter());
       }
       
-      FileNameInspector fni = new FileNameInspector();
+      FileNameInspector fni;
+      if (NAME_PATTERNS_FILE == null) {
+        fni = new FileNameInspector();
+      } else {
+        fni = new FileNameInspector(NameMatcher.load(new File(NAME_PATTERNS_FILE)));
+      }
       fc.addListener(fni);
       
-      DuplicateFileInspector dfi = new DuplicateFileInspector();
+      FileReaderInterface fileReader = FileReaders.makeReader(READ_STRATEGY, READ_BLOCK_SIZE, 
+                                                              ASYNC_READS, ASYNC_THREADS);
+      if (fileReader instanceof AsyncFileReader) {
+        // reads in flight are limited per device, like work units
+        ((AsyncFileReader)fileReader).setDeviceScheduler(deviceScheduler);
+      }
+      DuplicateFileInspector dfi = new DuplicateFileInspector(fc.getPathTable(), digestCache, 
+                                                              fileReader, hashFunction, 
+                                                              CONFIRM_MODE);
+      dfi.setMinFolderContainment(FOLDER_CONTAINMENT);
+      dfi.setChunkedDigester(chunkedDigester);
+      dfi.setReportSink(reportSink);
       fc.addListener(dfi);
       
+      FileTypeInspector fti = null;
+      if (DETECT_TYPES) {
+        fti = new FileTypeInspector();
+        fc.setContentBlockSize(READ_BLOCK_SIZE);
+        fc.addContentListener(fti);
+        // small files whose size already collided are hashed from the same read as their type
+        fc.addContentListener(dfi);
+      }
+      
       // blocks till computation is done
       fc.crawlDirectories(examineDirectories);
+      // with asynchronous reads, digests may still be completing after the crawl
+      dfi.awaitDigests();
+      
+      if (digestCache != null) {
+        System.out.println("Digest cache hits: " + digestCache.getHitCount() + 
+                             ", misses: " + digestCache.getMissCount());
+        digestCache.close();
+      }
 
       List<File> renameFiles = fni.getNotableFiles();
-      String duplicateResult = dfi.getDuplicateAnalysis(scheduler);
       {
         if (! renameFiles.isEmpty()) {
           System.out.println();
@@ -66,12 +182,27 @@ public class FileAnalyzer {
           }
         }
       }
-      {
-        if (! duplicateResult.isEmpty()) {
-          if (! renameFiles.isEmpty()) {
-            System.out.println();
+      if (fti != null) {
+        Map<File, String> mismatchedFiles = fti.getMismatchedFiles();
+        if (! mismatchedFiles.isEmpty()) {
+          System.out.println();
+          
+          System.out.println("Files with contents not matching their extension: ");
+          Iterator<Entry<File, String>> it = mismatchedFiles.entrySet().iterator();
+          while (it.hasNext()) {
+            Entry<File, String> e = it.next();
+            System.out.println(e.getKey().getAbsolutePath() + " (" + e.getValue() + ")");
           }
-          System.out.println(duplicateResult);
+        }
+      }
+      dfi.reportDuplicateAnalysis(scheduler);
+      if (REPORT_FILE != null) {
+        reportSink.close();
+      }
+      if (metricsReporter != null) {
+        metricsReporter.run();  // final totals
+        if (METRICS_FILE != null) {
+          metricsOut.close();
         }
       }
       
@@ -0,0 +1,160 @@
+package com.jentfoo.file;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Attributes of a file, read with a single stat of the file.  On top of the basic attributes
+ * this includes the inode, device and hard link count where the file system provides them,
+ * so that nothing about a file needs to be read more than once while crawling.
+ * 
+ * Instances are a snapshot of when the file was read, and are never updated.
+ */
+public class FileAttributes implements BasicFileAttributes {
+  private static final boolean UNIX_ATTRIBUTES_SUPPORTED =
+      FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+  // owner and group are left out, as they would require user and group lookups
+  private static final String UNIX_ATTRIBUTES = "unix:size,lastModifiedTime,lastAccessTime," +
+                                                  "creationTime,isRegularFile,isDirectory," +
+                                                  "isSymbolicLink,isOther,fileKey,ino,dev,nlink";
+  private static final LinkOption[] FOLLOW_LINKS = new LinkOption[0];
+  private static final LinkOption[] NO_FOLLOW_LINKS = new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+  
+  private final long size;
+  private final FileTime lastModifiedTime;
+  private final FileTime lastAccessTime;
+  private final FileTime creationTime;
+  private final boolean regularFile;
+  private final boolean directory;
+  private final boolean symbolicLink;
+  private final boolean other;
+  private final Object fileKey;
+  private final long inode;
+  private final Object deviceId;
+  private final int linkCount;
+  
+  private FileAttributes(Map<String, Object> attributes) {
+    this.size = (Long)attributes.get("size");
+    this.lastModifiedTime = (FileTime)attributes.get("lastModifiedTime");
+    this.lastAccessTime = (FileTime)attributes.get("lastAccessTime");
+    this.creationTime = (FileTime)attributes.get("creationTime");
+    this.regularFile = (Boolean)attributes.get("isRegularFile");
+    this.directory = (Boolean)attributes.get("isDirectory");
+    this.symbolicLink = (Boolean)attributes.get("isSymbolicLink");
+    this.other = (Boolean)attributes.get("isOther");
+    this.fileKey = attributes.get("fileKey");
+    this.inode = (Long)attributes.get("ino");
+    this.deviceId = attributes.get("dev");
+    this.linkCount = (Integer)attributes.get("nlink");
+  }
+  
+  private FileAttributes(BasicFileAttributes attributes) {
+    this.size = attributes.size();
+    this.lastModifiedTime = attributes.lastModifiedTime();
+    this.lastAccessTime = attributes.lastAccessTime();
+    this.creationTime = attributes.creationTime();
+    this.regularFile = attributes.isRegularFile();
+    this.directory = attributes.isDirectory();
+    this.symbolicLink = attributes.isSymbolicLink();
+    this.other = attributes.isOther();
+    this.fileKey = attributes.fileKey();
+    this.inode = -1;
+    this.deviceId = null;
+    this.linkCount = 1;
+  }
+  
+  /**
+   * Reads the attributes of a file.
+   * 
+   * @param path Path to read the attributes of
+   * @param followLinks true to read what a symbolic link points to, rather than the link itself
+   * @return Attributes of the file
+   * @throws IOException Thrown if the attributes could not be read
+   */
+  public static FileAttributes read(Path path, boolean followLinks) throws IOException {
+    LinkOption[] options = followLinks ? FOLLOW_LINKS : NO_FOLLOW_LINKS;
+    if (UNIX_ATTRIBUTES_SUPPORTED) {
+      return new FileAttributes(Files.readAttributes(path, UNIX_ATTRIBUTES, options));
+    } else {
+      return new FileAttributes(Files.readAttributes(path, BasicFileAttributes.class, options));
+    }
+  }
+  
+  @Override
+  public long size() {
+    return size;
+  }
+  
+  @Override
+  public FileTime lastModifiedTime() {
+    return lastModifiedTime;
+  }
+  
+  @Override
+  public FileTime lastAccessTime() {
+    return lastAccessTime;
+  }
+  
+  @Override
+  public FileTime creationTime() {
+    return creationTime;
+  }
+  
+  @Override
+  public boolean isRegularFile() {
+    return regularFile;
+  }
+  
+  @Override
+  public boolean isDirectory() {
+    return directory;
+  }
+  
+  @Override
+  public boolean isSymbolicLink() {
+    return symbolicLink;
+  }
+  
+  @Override
+  public boolean isOther() {
+    return other;
+  }
+  
+  @Override
+  public Object fileKey() {
+    return fileKey;
+  }
+  
+  /**
+   * Returns the inode number of the file.
+   * 
+   * @return Inode number, or -1 if the file system does not provide them
+   */
+  public long getInode() {
+    return inode;
+  }
+  
+  /**
+   * Returns an identifier for the device the file is stored on.
+   * 
+   * @return Device identifier, or null if the file system does not provide them
+   */
+  public Object getDeviceId() {
+    return deviceId;
+  }
+  
+  /**
+   * Returns how many hard links there are to the file.
+   * 
+   * @return Number of hard links, always 1 if the file system does not provide link counts
+   */
+  public int getLinkCount() {
+    return linkCount;
+  }
+}
@@ -0,0 +1,16 @@
+package com.jentfoo.file;
+
+import java.io.File;
+
+public interface FileAttributesFilterInterface extends FileFilterInterface {
+  /**
+   * Called instead of {@link #shouldExclude(File)}
+   * while crawling, with the attributes the crawler
+   * already read for the file or folder.
+   * 
+   * @param file file or folder looking to inspect
+   * @param attributes Attributes of the file, with symbolic links followed
+   * @return true if the file should be skipped from crawling
+   */
+  public boolean shouldExclude(File file, FileAttributes attributes);
+}
@@ -0,0 +1,17 @@
+package com.jentfoo.file;
+
+import java.io.File;
+
+public interface FileAttributesListenerInterface extends FileListenerInterface {
+  /**
+   * Called instead of {@link #handleFile(File)}
+   * when the file is provided from the crawler,
+   * with the attributes read while crawling.  Any
+   * attributes needed should be taken from here
+   * rather than read from the file again.
+   * 
+   * @param file File to be handled
+   * @param attributes Attributes of the file, with symbolic links followed
+   */
+  public void handleFile(File file, FileAttributes attributes);
+}
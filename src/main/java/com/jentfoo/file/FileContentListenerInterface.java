@@ -0,0 +1,51 @@
+package com.jentfoo.file;
+
+import java.io.File;
+
+/**
+ * Listener for the contents of crawled files.  Each file is read at most once no matter how
+ * many content listeners there are, and every listener is handed the same blocks as they are
+ * read.  This happens in three steps for each file:
+ * <ol>
+ * <li>{@link #getContentLength(File, FileAttributes)} is asked how much of the file the
+ *     listener needs, and the file is read as far as the most any listener needs
+ * <li>{@link #startContent(File, FileAttributes, long)} is told how much will be read, and
+ *     may provide a handler to receive the contents (even if it did not ask for any)
+ * <li>{@link #finishContent(File, ContentHandlerInterface, boolean)} is called once the
+ *     read is done (or failed) for every handler which was provided
+ * </ol>
+ * All three are called from the same thread for a given file, but may be called in parallel
+ * for different files.
+ */
+public interface FileContentListenerInterface {
+  /**
+   * Returns how many bytes from the start of the file this listener needs.
+   * 
+   * @param file File about to be read
+   * @param attributes Attributes of the file, with symbolic links followed
+   * @return Bytes needed, 0 if none, or {@link Long#MAX_VALUE} for the whole file
+   */
+  public long getContentLength(File file, FileAttributes attributes);
+  
+  /**
+   * Called before the file is read, if any listener needs its contents.  Handlers must not
+   * modify the buffers they are provided, as they are shared with the other handlers.
+   * 
+   * @param file File about to be read
+   * @param attributes Attributes of the file, with symbolic links followed
+   * @param readLength Bytes which will be read, {@link Long#MAX_VALUE} if the whole file
+   * @return Handler to provide the contents to, or null to not receive them
+   */
+  public ContentHandlerInterface startContent(File file, FileAttributes attributes,
+                                              long readLength);
+  
+  /**
+   * Called once the contents have been provided to a handler returned from
+   * {@link #startContent(File, FileAttributes, long)}.
+   * 
+   * @param file File which was read
+   * @param handler Handler which was provided the contents
+   * @param wholeFile true if the entire file was read without error
+   */
+  public void finishContent(File file, ContentHandlerInterface handler, boolean wholeFile);
+}
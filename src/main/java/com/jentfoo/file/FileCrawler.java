@@ -2,23 +2,44 @@ package com.jentfoo.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.threadly.concurrent.SubmitterScheduler;
+import org.threadly.util.Clock;
 import org.threadly.util.ExceptionUtils;
 
 public class FileCrawler {
-  private static final short MAX_FILES_PER_THREAD_DEFAULT = 1000;
-  private static final long MAX_SIZE_PER_THREAD_DEFAULT = 1024L * 1024L * 1024L * 10; // 10 GB
+  public static final short MAX_FILES_PER_THREAD_DEFAULT = 1000;
+  public static final long MAX_SIZE_PER_THREAD_DEFAULT = 1024L * 1024L * 1024L * 10; // 10 GB
+  public static final int CRAWL_THREAD_COUNT_DEFAULT = Runtime.getRuntime().availableProcessors() * 2;
+  public static final int MAX_QUEUED_UNITS_DEFAULT = Runtime.getRuntime().availableProcessors() * 16;
+  private static final Histogram LIST_NANOS = Metrics.histogram("crawl.listNanos");
+  private static final AtomicLong DIRECTORIES_LISTED = Metrics.counter("crawl.directoriesListed");
+  private static final AtomicLong FILES_FOUND = Metrics.counter("crawl.filesFound");
+  private static final AtomicLong CRAWL_MILLIS = Metrics.counter("stage.crawlMillis");
   
-  private final SubmitterScheduler scheduler;
+  private final DeviceScheduler deviceScheduler;
   private final int maxFilesPerThread;
   private final long maxSizePerThread;
+  private final int crawlThreadCount;
+  private final PathTable pathTable;
   private final List<FileListenerInterface> listeners;
+  private final List<Histogram> listenerLatencies;
   private final List<FileFilterInterface> filters;
+  private final List<FileAttributesFilterInterface> attributesFilters;
+  private final ContentFanOut contentFanOut;
+  private volatile boolean followLinks;
   
   public FileCrawler(SubmitterScheduler scheduler) {
     this(scheduler, MAX_FILES_PER_THREAD_DEFAULT, MAX_SIZE_PER_THREAD_DEFAULT);
@@ -33,121 +54,447 @@ public class FileCrawler {
    */
   public FileCrawler(SubmitterScheduler scheduler, 
                      int maxFilesPerThread, long maxSizePerThread) {
-    this.scheduler = scheduler;
+    this(new DeviceScheduler(scheduler, DeviceScheduler.AUTO_CONCURRENCY, MAX_QUEUED_UNITS_DEFAULT), 
+         maxFilesPerThread, maxSizePerThread, CRAWL_THREAD_COUNT_DEFAULT);
+  }
+  
+  /**
+   * Constructs a new FileCrawler which will run work units for each device through the 
+   * provided device scheduler.
+   * 
+   * @param deviceScheduler Scheduler to run work units on, with limits per device.
+   * @param maxFilesPerThread Maximum files to examine per thread (if <= 0 it will be one file per thread)
+   * @param maxSizePerThread Maximum file size accumulated per thread (if <= 0 there will be no limit)
+   * @param crawlThreadCount Number of threads to list directories with
+   */
+  public FileCrawler(DeviceScheduler deviceScheduler, 
+                     int maxFilesPerThread, long maxSizePerThread, 
+                     int crawlThreadCount) {
+    if (crawlThreadCount < 1) {
+      throw new IllegalArgumentException("Must have at least one crawl thread: " + crawlThreadCount);
+    }
+    
+    this.deviceScheduler = deviceScheduler;
     this.maxFilesPerThread = maxFilesPerThread;
     this.maxSizePerThread = maxSizePerThread;
+    this.crawlThreadCount = crawlThreadCount;
+    this.pathTable = new PathTable();
     this.listeners = new LinkedList<FileListenerInterface>();
+    this.listenerLatencies = new LinkedList<Histogram>();
     this.filters = new LinkedList<FileFilterInterface>();
+    this.attributesFilters = new LinkedList<FileAttributesFilterInterface>();
+    this.contentFanOut = new ContentFanOut();
+    this.followLinks = true;
   }
   
+  /**
+   * Returns the table every crawled directory and file is added to.  Files provided to 
+   * listeners are already in this table, so their id can be found without any path parsing.
+   * 
+   * @return Table of crawled paths
+   */
+  public PathTable getPathTable() {
+    return pathTable;
+  }
+  
+  /**
+   * Adds a listener to be called for every crawled file.  If the listener implements 
+   * {@link FileAttributesListenerInterface} it is provided the attributes read while 
+   * crawling along with each file.
+   * 
+   * @param listener Listener to add
+   */
   public void addListener(FileListenerInterface listener) {
     if (listener != null) {
       listeners.add(listener);
+      // latency of each listener type is recorded separately, as "listener.<name>.handleFileNanos"
+      String name = listener.getClass().getSimpleName();
+      if (name.isEmpty()) {
+        name = listener.getClass().getName();
+      }
+      listenerLatencies.add(Metrics.histogram("listener." + name + ".handleFileNanos"));
     }
   }
   
+  /**
+   * Adds a listener for the contents of every crawled file.  Each file is read once for all 
+   * content listeners, before any {@link FileListenerInterface} is called for it.  A class 
+   * may be added as both kinds of listener.
+   * 
+   * @param listener Listener to add
+   */
+  public void addContentListener(FileContentListenerInterface listener) {
+    contentFanOut.addListener(listener);
+  }
+  
+  /**
+   * Sets the size of each read done for content listeners, defaults to 
+   * {@link FileReaders#DEFAULT_BLOCK_SIZE}.  This should be set before crawling.
+   * 
+   * @param blockSize Size in bytes of each read
+   */
+  public void setContentBlockSize(int blockSize) {
+    contentFanOut.setBlockSize(blockSize);
+  }
+  
+  /**
+   * Adds a filter to exclude files and directories from crawling.  Filters which implement 
+   * {@link FileAttributesFilterInterface} are provided the attributes read while crawling, 
+   * and are checked after every other filter so that excluded entries are never read.
+   * 
+   * @param filter Filter to add
+   */
   public void addFilter(FileFilterInterface filter) {
-    if (filter != null) {
+    if (filter instanceof FileAttributesFilterInterface) {
+      attributesFilters.add((FileAttributesFilterInterface)filter);
+    } else if (filter != null) {
       filters.add(filter);
     }
   }
-
+  
+  /**
+   * Sets if symbolic links should be followed while crawling (the default).  If not followed 
+   * links to files and directories are skipped entirely, the directories provided to 
+   * {@link #crawlDirectories(List)} are still followed if they are links themselves.  When 
+   * followed, links to files which are within a crawled directory are skipped, since the 
+   * file will be found at its real path.  This is only done if no filter excludes the real 
+   * path or a directory above it.
+   * 
+   * @param followLinks true to crawl what symbolic links point to
+   */
+  public void setFollowLinks(boolean followLinks) {
+    this.followLinks = followLinks;
+  }
+  
   /**
    * Will crawl all the provided directories, and in parallel call the added listeners.
    * 
+   * Directories are listed in parallel using work stealing, and work units are submitted 
+   * as soon as the directory containing them has been read.  Work units are executed through 
+   * the device the files are stored on.  If the maximum number of queued work units for a 
+   * device is reached, crawling of that device will block until the listeners catch up.
+   * 
+   * Each directory is only crawled once, even if it is reached again through a link (which 
+   * may form a cycle) or from more than one of the provided directories.
+   * 
+   * The attributes of each entry are read once while crawling, and provided to filters and 
+   * listeners which accept them, so that the same file does not need to be stat'ed again.
+   * 
    * This call will block until all directories have been crawled, and all listeners have 
-   * completed.
+   * completed.  The time this takes is added to the "stage.crawlMillis" metric.
    * 
    * @param examineDirectories List of directories to start crawling from.
    * @throws IOException
    */
   public void crawlDirectories(List<File> examineDirectories) throws IOException {
-    List<Future<?>> futures = new LinkedList<Future<?>>();
+    // devices bound their own queues, this is just for tracking overall progress
+    long startTime = Clock.accurateForwardProgressingMillis();
+    final WorkUnitTracker tracker = new WorkUnitTracker(Integer.MAX_VALUE);
+    Metrics.registerGauge("crawl.outstandingUnits", new GaugeInterface() {
+      @Override
+      public long getValue() {
+        return tracker.getSubmittedCount() - tracker.getCompletedCount();
+      }
+    });
+    List<File> rootDirectories = new ArrayList<File>(examineDirectories.size());
+    Iterator<File> it = examineDirectories.iterator();
+    while (it.hasNext()) {
+      rootDirectories.add(it.next().getCanonicalFile());
+    }
+    CrawlState crawlState = new CrawlState(rootDirectories);
+    final List<DirectoryCrawlTask> rootTasks = new ArrayList<DirectoryCrawlTask>(rootDirectories.size());
+    it = rootDirectories.iterator();
+    while (it.hasNext()) {
+      File directory = it.next();
+      FileAttributes attributes = FileAttributes.read(directory.toPath(), true);
+      rootTasks.add(new DirectoryCrawlTask(directory, getDirectoryKey(directory, attributes), 
+                                           pathTable.addPath(directory, true), 
+                                           deviceScheduler.getDevice(directory, attributes, null), 
+                                           tracker, crawlState));
+    }
     
-    crawlDirectories(examineDirectories, futures);
-    System.out.println("Processing " + futures.size() + " work units\n");
+    ForkJoinPool crawlPool = new ForkJoinPool(crawlThreadCount);
+    try {
+      Future<?> crawlFuture = crawlPool.submit(new Runnable() {
+        @Override
+        public void run() {
+          ForkJoinTask.invokeAll(rootTasks);
+        }
+      });
+      
+      // block till all crawling and computation has completed
+      FutureUtil.blockTillAllDone(crawlFuture, tracker);
+    } finally {
+      crawlPool.shutdown();
+      CRAWL_MILLIS.addAndGet(Clock.accurateForwardProgressingMillis() - startTime);
+    }
+  }
+  
+  /**
+   * Returns a key which is the same for every path to a directory.  This is the file key 
+   * (device and inode on most systems) if there is one, otherwise the canonical path.
+   */
+  private static Object getDirectoryKey(File directory, FileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
     
-    // block till all computation has completed
-    FutureUtil.blockTillAllDone(futures);
+    return fileKey == null ? directory.getPath() : fileKey;
   }
   
-  private void crawlDirectories(List<File> examineDirectories, 
-                                List<Future<?>> futures) throws IOException {
-    List<File> toInspectDirectories = new LinkedList<File>();
-    long toInspectSize = 0;
-    List<File> toInspectFiles = new LinkedList<File>();
-    Iterator<File> it = examineDirectories.iterator();
+  private void handleFiles(final List<File> fileList, final List<FileAttributes> attributesList, 
+                           final DeviceScheduler.Device device, final WorkUnitTracker tracker) {
+    tracker.unitSubmitted();
+    device.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (device.isOrderedByInode()) {
+            DeviceScheduler.sortByInode(fileList, attributesList);
+          }
+          handleFiles(fileList, attributesList);
+        } finally {
+          tracker.unitCompleted();
+        }
+      }
+    });
+  }
+  
+  private void handleFiles(List<File> fileList, List<FileAttributes> attributesList) {
+    Iterator<File> it = fileList.iterator();
+    Iterator<FileAttributes> attributesIt = attributesList.iterator();
     while (it.hasNext()) {
-      File directory = it.next().getCanonicalFile();
-      File[] contents = FileUtils.getFolderContents(directory);
+      File f = it.next();
+      FileAttributes attributes = attributesIt.next();
+      if (contentFanOut.hasListeners()) {
+        contentFanOut.read(f, attributes);
+      }
+      Iterator<FileListenerInterface> lIt = listeners.iterator();
+      Iterator<Histogram> latencyIt = listenerLatencies.iterator();
+      while (lIt.hasNext()) {
+        FileListenerInterface listener = lIt.next();
+        Histogram latency = latencyIt.next();
+        long startNanos = System.nanoTime();
+        try {
+          if (listener instanceof FileAttributesListenerInterface) {
+            ((FileAttributesListenerInterface)listener).handleFile(f, attributes);
+          } else {
+            listener.handleFile(f);
+          }
+        } catch (Exception e) {
+          ExceptionUtils.handleException(e);
+        } finally {
+          latency.record(System.nanoTime() - startNanos);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Lists a single directory, submitting work units for the files within it, and then 
+   * forking tasks for each sub directory.  Idle crawl threads steal the forked tasks, so 
+   * sibling directories end up listed concurrently.
+   */
+  private class DirectoryCrawlTask extends RecursiveAction {
+    private static final long serialVersionUID = -2862946633446291962L;
+    
+    private final File directory;
+    private final Object directoryKey;
+    private final int directoryNode;
+    private final DeviceScheduler.Device device;
+    private final WorkUnitTracker tracker;
+    private final CrawlState crawlState;
+    
+    private DirectoryCrawlTask(File directory, Object directoryKey, int directoryNode, 
+                               DeviceScheduler.Device device, WorkUnitTracker tracker, 
+                               CrawlState crawlState) {
+      this.directory = directory;
+      this.directoryKey = directoryKey;
+      this.directoryNode = directoryNode;
+      this.device = device;
+      this.tracker = tracker;
+      this.crawlState = crawlState;
+    }
+    
+    @Override
+    protected void compute() {
+      if (! crawlState.visitedDirectories.add(directoryKey)) {
+        return; // reached again through a link, or a cycle
+      }
+      long startNanos = System.nanoTime();
+      // every directory is only visited once, so a cached listing could never be used again
+      File[] contents = FileUtils.listFolder(directory);
       if (contents == null) {
-        continue;
+        return;
       }
+      LIST_NANOS.record(System.nanoTime() - startNanos);
+      DIRECTORIES_LISTED.incrementAndGet();
+      pathTable.markListed(directoryNode);
       
-      boolean containsDirectory = false;
+      List<DirectoryCrawlTask> subTasks = new LinkedList<DirectoryCrawlTask>();
+      long toInspectSize = 0;
+      List<File> toInspectFiles = new ArrayList<File>();
+      List<FileAttributes> toInspectAttributes = new ArrayList<FileAttributes>();
       for (File f : contents) {
-        boolean exclude = false;
-        Iterator<FileFilterInterface> filterIt = filters.iterator();
-        while (filterIt.hasNext()) {
-          if (filterIt.next().shouldExclude(f)) {
-            exclude = true;
-            break;
+        if (isExcluded(f)) {
+          continue;
+        }
+        FileAttributes attributes;
+        boolean link;
+        try {
+          attributes = FileAttributes.read(f.toPath(), false);
+          link = attributes.isSymbolicLink();
+          if (link) {
+            if (! followLinks) {
+              continue;
+            }
+            attributes = FileAttributes.read(f.toPath(), true);
           }
+        } catch (IOException e) {
+          continue; // removed since being listed, or a link to nothing
         }
-        if (exclude) {
+        if (isExcluded(f, attributes)) {
           continue;
         }
         
-        if (f.isDirectory()) {
-          containsDirectory = true;
-          toInspectDirectories.add(f);
+        if (attributes.isDirectory()) {
+          try {
+            File subDirectory;
+            int subDirectoryNode;
+            if (! link) {  // the parent is canonical, so this is as well
+              subDirectory = f;
+              subDirectoryNode = pathTable.addChild(directoryNode, f.getName(), true);
+            } else {  // linked from elsewhere
+              subDirectory = f.getCanonicalFile();
+              subDirectoryNode = pathTable.addPath(subDirectory, true);
+            }
+            subTasks.add(new DirectoryCrawlTask(subDirectory, getDirectoryKey(subDirectory, attributes), 
+                                                subDirectoryNode, 
+                                                deviceScheduler.getDevice(subDirectory, attributes, device), 
+                                                tracker, crawlState));
+          } catch (IOException e) {
+            ExceptionUtils.handleException(e);
+          }
         } else {
-          toInspectFiles.add(f);
-          if (maxSizePerThread > 0) {
-            toInspectSize += f.length();
+          if (link) {
+            try {
+              if (willBeCrawled(f.getCanonicalFile(), attributes)) {
+                continue; // will be found at its real path
+              }
+            } catch (IOException e) {
+              ExceptionUtils.handleException(e);
+              continue;
+            }
           }
+          FILES_FOUND.incrementAndGet();
+          toInspectFiles.add(pathTable.makeFile(pathTable.addChild(directoryNode, f.getName(), false), 
+                                                f.getPath()));
+          toInspectAttributes.add(attributes);
+          toInspectSize += attributes.size();
           
           if ((maxSizePerThread > 0 && toInspectSize >= maxSizePerThread) || 
               toInspectFiles.size() >= maxFilesPerThread) {
-            futures.add(handleFiles(toInspectFiles));
+            handleFiles(toInspectFiles, toInspectAttributes, device, tracker);
             
-            toInspectFiles = new LinkedList<File>();
+            toInspectFiles = new ArrayList<File>();
+            toInspectAttributes = new ArrayList<FileAttributes>();
             toInspectSize = 0;
           }
         }
       }
+      if (! toInspectFiles.isEmpty()) {
+        handleFiles(toInspectFiles, toInspectAttributes, device, tracker);
+      }
       
-      if (containsDirectory) {
-        // might as well free up some memory
-        FileUtils.purgeContentsFromCache(directory);
+      if (! subTasks.isEmpty()) {
+        invokeAll(subTasks);
       }
     }
     
-    if (! toInspectFiles.isEmpty()) {
-      futures.add(handleFiles(toInspectFiles));
+    /**
+     * Checks if a file will be found at its canonical path.  It must be within a crawled 
+     * directory, and neither it nor any directory between it and that root can be excluded 
+     * by a filter.
+     */
+    private boolean willBeCrawled(File canonicalFile, FileAttributes attributes) throws IOException {
+      File root = crawlState.getRoot(canonicalFile);
+      if (root == null || isExcluded(canonicalFile) || isExcluded(canonicalFile, attributes)) {
+        return false;
+      }
+      File parent = canonicalFile.getParentFile();
+      while (parent != null && ! parent.equals(root)) {
+        if (isExcluded(parent) || 
+            isExcluded(parent, FileAttributes.read(parent.toPath(), false))) {
+          return false;
+        }
+        parent = parent.getParentFile();
+      }
+      
+      return true;
     }
-    if (! toInspectDirectories.isEmpty()) {
-      crawlDirectories(toInspectDirectories, futures);
+    
+    private boolean isExcluded(File f) {
+      Iterator<FileFilterInterface> it = filters.iterator();
+      while (it.hasNext()) {
+        if (it.next().shouldExclude(f)) {
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    private boolean isExcluded(File f, FileAttributes attributes) {
+      Iterator<FileAttributesFilterInterface> it = attributesFilters.iterator();
+      while (it.hasNext()) {
+        if (it.next().shouldExclude(f, attributes)) {
+          return true;
+        }
+      }
+      
+      return false;
     }
   }
   
-  private Future<?> handleFiles(final List<File> fileList) {
-    return scheduler.submit(new Runnable() {
-      @Override
-      public void run() {
-        Iterator<File> it = fileList.iterator();
-        while (it.hasNext()) {
-          File f = it.next();
-          Iterator<FileListenerInterface> lIt = listeners.iterator();
-          while (lIt.hasNext()) {
-            try {
-              lIt.next().handleFile(f);
-            } catch (Exception e) {
-              ExceptionUtils.handleException(e);
-            }
-          }
+  /**
+   * State shared by every directory task of a single crawl.
+   */
+  private static class CrawlState {
+    private final Set<Object> visitedDirectories;
+    private final List<File> rootDirectories;
+    private final List<String> rootPaths;
+    
+    private CrawlState(List<File> rootDirectories) {
+      visitedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+      this.rootDirectories = rootDirectories;
+      rootPaths = new ArrayList<String>(rootDirectories.size());
+      Iterator<File> it = rootDirectories.iterator();
+      while (it.hasNext()) {
+        String path = it.next().getPath();
+        rootPaths.add(path.endsWith(File.separator) ? path : path + File.separatorChar);
+      }
+    }
+    
+    /**
+     * Finds the crawled directory a canonical path is within.  If the roots are nested the 
+     * deepest one is returned, since it is crawled even if a directory above it is excluded.
+     * 
+     * @return Root directory containing the file, or {@code null} if it is not within one
+     */
+    private File getRoot(File file) {
+      String path = file.getPath();
+      File result = null;
+      int resultLength = -1;
+      Iterator<File> rootIt = rootDirectories.iterator();
+      Iterator<String> pathIt = rootPaths.iterator();
+      while (rootIt.hasNext()) {
+        File root = rootIt.next();
+        String rootPath = pathIt.next();
+        if (path.startsWith(rootPath) && rootPath.length() > resultLength) {
+          result = root;
+          resultLength = rootPath.length();
         }
       }
-    });
+      
+      return result;
+    }
   }
 }
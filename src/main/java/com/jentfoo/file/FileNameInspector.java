@@ -3,15 +3,14 @@ package com.jentfoo.file;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FileNameInspector implements FileListenerInterface {
   private final static List<String> NOTABLE_CONTENTS;
   
   static {
-    // should be only in lower case
     List<String> contents = new ArrayList<String>(8);
     contents.add("xvid");
     contents.add("hdtv");
@@ -25,14 +24,35 @@ public class FileNameInspector implements FileListenerInterface {
     NOTABLE_CONTENTS = Collections.unmodifiableList(contents);
   }
   
-  private final List<File> notableFiles;
+  private final NameMatcher nameMatcher;
+  private final Queue<File> notableFiles;
   
   public FileNameInspector() {
-    notableFiles = new LinkedList<File>();
+    this(NameMatcher.forSubstrings(NOTABLE_CONTENTS));
   }
   
+  // package-private so the default patterns can be used by the benchmarks in src/jmh
+  static List<String> getNotableContents() {
+    return NOTABLE_CONTENTS;
+  }
+  
+  /**
+   * Constructs a new inspector which reports files whose name matches the provided matcher.
+   * 
+   * @param nameMatcher Matcher for names which are notable
+   */
+  public FileNameInspector(NameMatcher nameMatcher) {
+    this.nameMatcher = nameMatcher;
+    this.notableFiles = new ConcurrentLinkedQueue<File>();
+  }
+  
+  /**
+   * Returns the files found to have a notable name so far.
+   * 
+   * @return A new list of the notable files
+   */
   public List<File> getNotableFiles() {
-    return notableFiles;
+    return new ArrayList<File>(notableFiles);
   }
   
   @Override
@@ -42,15 +62,8 @@ public class FileNameInspector implements FileListenerInterface {
     }
   }
   
-  private boolean isNotableName(File file) {
-    String fileName = file.getName().toLowerCase();
-    Iterator<String> it = NOTABLE_CONTENTS.iterator();
-    while (it.hasNext()) {
-      if (fileName.contains(it.next())) {
-        return true;
-      }
-    }
-    
-    return false;
+  // package-private so it can be measured by the benchmarks in src/jmh
+  boolean isNotableName(File file) {
+    return nameMatcher.matches(file);
   }
 }
@@ -0,0 +1,27 @@
+package com.jentfoo.file;
+
+import java.io.File;
+
+/**
+ * Callback for a file read which completes after the call which started it has returned.  
+ * Exactly one of the two functions is invoked for each read, from whichever thread finished 
+ * the read.
+ */
+public interface FileReadCallbackInterface {
+  /**
+   * Called once every block of the file has been provided to the handler.
+   * 
+   * @param file File which was read
+   * @param byteCount Number of bytes which were provided to the handler
+   */
+  public void readComplete(File file, long byteCount);
+  
+  /**
+   * Called if the file could not be read, or the handler threw while handling a block.  The 
+   * handler may have been provided some of the contents before the failure.
+   * 
+   * @param file File which failed to be read
+   * @param t Cause of the failure
+   */
+  public void readFailed(File file, Throwable t);
+}
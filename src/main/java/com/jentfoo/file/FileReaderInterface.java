@@ -0,0 +1,17 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface FileReaderInterface {
+  /**
+   * Reads the full contents of a file, providing the contents in order 
+   * to the handler.  Keep in mind that implementations of this interface 
+   * may have this called in parallel.
+   * 
+   * @param file File to read
+   * @param handler Handler to receive the file contents
+   * @throws IOException Thrown if the file could not be read
+   */
+  public void read(File file, ContentHandlerInterface handler) throws IOException;
+}
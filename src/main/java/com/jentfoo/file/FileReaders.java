@@ -0,0 +1,50 @@
+package com.jentfoo.file;
+
+public class FileReaders {
+  public static final String STRATEGY_STREAM = "stream";
+  public static final String STRATEGY_CHANNEL = "channel";
+  public static final String STRATEGY_MAPPED = "mapped";
+  public static final String STRATEGY_ASYNC = "async";
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 256;
+  private static final long MAPPED_THRESHOLD_BLOCK_COUNT = 16;
+  
+  /**
+   * Constructs a file reader for the named strategy.
+   * 
+   * @param strategy One of "stream", "channel", "mapped" or "async"
+   * @param blockSize Size of the buffer each thread will read into
+   * @return A new file reader
+   */
+  public static FileReaderInterface makeReader(String strategy, int blockSize) {
+    return makeReader(strategy, blockSize, AsyncFileReader.DEFAULT_MAX_IN_FLIGHT, 
+                      AsyncFileReader.DEFAULT_THREAD_COUNT);
+  }
+  
+  /**
+   * Constructs a file reader for the named strategy.
+   * 
+   * @param strategy One of "stream", "channel", "mapped" or "async"
+   * @param blockSize Size of the buffer each thread (or each read in flight) will read into
+   * @param maxInFlight Maximum reads in flight at once, only used by the "async" strategy
+   * @param asyncThreadCount Threads reads are handled on, only used by the "async" strategy
+   * @return A new file reader
+   */
+  public static FileReaderInterface makeReader(String strategy, int blockSize, int maxInFlight, 
+                                               int asyncThreadCount) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    
+    if (STRATEGY_STREAM.equalsIgnoreCase(strategy)) {
+      return new StreamFileReader(blockSize);
+    } else if (STRATEGY_CHANNEL.equalsIgnoreCase(strategy)) {
+      return new ChannelFileReader(blockSize);
+    } else if (STRATEGY_MAPPED.equalsIgnoreCase(strategy)) {
+      return new MappedFileReader(blockSize, blockSize * MAPPED_THRESHOLD_BLOCK_COUNT);
+    } else if (STRATEGY_ASYNC.equalsIgnoreCase(strategy)) {
+      return new AsyncFileReader(blockSize, maxInFlight, asyncThreadCount);
+    } else {
+      throw new IllegalArgumentException("Unknown read strategy: " + strategy);
+    }
+  }
+}
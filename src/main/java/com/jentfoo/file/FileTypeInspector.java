@@ -0,0 +1,177 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects the type of files from the magic bytes at the start of their contents, and records
+ * files whose extension belongs to a different type than their contents (for example a png
+ * named ".jpg", or a zip named ".avi").  Only files with an extension of a known type are
+ * read, and only the first few bytes of them.
+ * 
+ * Files whose type can not be detected are never reported, since some formats (like mp3) do
+ * not always start with a magic number.
+ */
+public class FileTypeInspector implements FileContentListenerInterface {
+  private static final int HEADER_LENGTH = 16;
+  private static final FileType[] FILE_TYPES = {
+    new FileType("jpeg", 0, bytes(0xFF, 0xD8, 0xFF), "jpg", "jpeg", "jpe"),
+    new FileType("png", 0, bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A), "png"),
+    new FileType("gif", 0, ascii("GIF8"), "gif"),
+    new FileType("pdf", 0, ascii("%PDF-"), "pdf"),
+    new FileType("zip", 0, bytes('P', 'K', 0x03, 0x04),
+                 "zip", "jar", "apk", "epub", "docx", "xlsx", "pptx", "odt", "ods", "odp"),
+    new FileType("gzip", 0, bytes(0x1F, 0x8B), "gz", "tgz"),
+    new FileType("7z", 0, bytes('7', 'z', 0xBC, 0xAF, 0x27, 0x1C), "7z"),
+    new FileType("rar", 0, ascii("Rar!"), "rar"),
+    new FileType("matroska", 0, bytes(0x1A, 0x45, 0xDF, 0xA3), "mkv", "mka", "webm"),
+    new FileType("iso media", 4, ascii("ftyp"), "mp4", "m4v", "m4a", "mov", "3gp", "heic"),
+    new FileType("avi", 8, ascii("AVI "), "avi"),
+    new FileType("wav", 8, ascii("WAVE"), "wav"),
+    new FileType("webp", 8, ascii("WEBP"), "webp"),
+    new FileType("flac", 0, ascii("fLaC"), "flac"),
+    new FileType("ogg", 0, ascii("OggS"), "ogg", "oga", "ogv", "opus"),
+    new FileType("java class", 0, bytes(0xCA, 0xFE, 0xBA, 0xBE), "class")
+  };
+  private static final Set<String> KNOWN_EXTENSIONS;
+  
+  static {
+    Set<String> extensions = new HashSet<String>();
+    for (FileType type : FILE_TYPES) {
+      extensions.addAll(type.extensions);
+    }
+    
+    KNOWN_EXTENSIONS = Collections.unmodifiableSet(extensions);
+  }
+  
+  private final Map<File, String> mismatchedFiles;
+  
+  public FileTypeInspector() {
+    mismatchedFiles = new ConcurrentHashMap<File, String>();
+  }
+  
+  /**
+   * Returns the files found so far whose contents do not match their extension.
+   * 
+   * @return A new map of each file to the type detected from its contents
+   */
+  public Map<File, String> getMismatchedFiles() {
+    return new HashMap<File, String>(mismatchedFiles);
+  }
+  
+  @Override
+  public long getContentLength(File file, FileAttributes attributes) {
+    return getKnownExtension(file) == null ? 0 : HEADER_LENGTH;
+  }
+  
+  @Override
+  public ContentHandlerInterface startContent(File file, FileAttributes attributes,
+                                              long readLength) {
+    return getKnownExtension(file) == null ? null : new HeaderCollector();
+  }
+  
+  @Override
+  public void finishContent(File file, ContentHandlerInterface handler, boolean wholeFile) {
+    byte[] header = ((HeaderCollector)handler).getHeader();
+    FileType type = detectType(header);
+    if (type != null && ! type.extensions.contains(getKnownExtension(file))) {
+      mismatchedFiles.put(file, type.name);
+    }
+  }
+  
+  /**
+   * Returns the lower cased extension of the file, if it belongs to a type which can be
+   * detected.
+   */
+  private static String getKnownExtension(File file) {
+    String path = file.getPath();
+    int extensionStart = path.lastIndexOf('.') + 1;
+    if (extensionStart <= path.lastIndexOf(File.separatorChar) + 1) {
+      return null;
+    }
+    String extension = path.substring(extensionStart).toLowerCase(Locale.ROOT);
+    
+    return KNOWN_EXTENSIONS.contains(extension) ? extension : null;
+  }
+  
+  private static FileType detectType(byte[] header) {
+    for (FileType type : FILE_TYPES) {
+      if (type.matches(header)) {
+        return type;
+      }
+    }
+    
+    return null;
+  }
+  
+  private static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte)values[i];
+    }
+    
+    return result;
+  }
+  
+  private static byte[] ascii(String str) {
+    return str.getBytes(StandardCharsets.US_ASCII);
+  }
+  
+  /**
+   * A type of file, identified by bytes at a fixed offset.
+   */
+  private static class FileType {
+    private final String name;
+    private final int offset;
+    private final byte[] magic;
+    private final Set<String> extensions;
+    
+    private FileType(String name, int offset, byte[] magic, String... extensions) {
+      this.name = name;
+      this.offset = offset;
+      this.magic = magic;
+      this.extensions = new HashSet<String>(Arrays.asList(extensions));
+    }
+    
+    private boolean matches(byte[] header) {
+      if (header.length < offset + magic.length) {
+        return false;
+      }
+      for (int i = 0; i < magic.length; i++) {
+        if (header[offset + i] != magic[i]) {
+          return false;
+        }
+      }
+      
+      return true;
+    }
+  }
+  
+  /**
+   * Keeps the first bytes of a file, ignoring the rest.
+   */
+  private static class HeaderCollector implements ContentHandlerInterface {
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int length = 0;
+    
+    @Override
+    public void handleContent(ByteBuffer buffer) {
+      int count = Math.min(buffer.remaining(), header.length - length);
+      buffer.get(header, length, count);
+      length += count;
+    }
+    
+    private byte[] getHeader() {
+      return length == header.length ? header : Arrays.copyOf(header, length);
+    }
+  }
+}
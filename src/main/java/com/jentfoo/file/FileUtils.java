@@ -1,6 +1,14 @@
 package com.jentfoo.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -14,14 +22,43 @@ public class FileUtils {
   public static File[] getFolderContents(File folder) {
     File[] result = fileContentsCache.get(folder);
     if (result == null) {
-      result = folder.listFiles();
+      result = listFolder(folder);
       
-      fileContentsCache.put(folder, result);
+      if (result != null) {
+        fileContentsCache.put(folder, result);
+      }
     }
     
     return result;
   }
   
+  /**
+   * Lists the contents of a folder directly, without checking or filling the contents cache.  
+   * This is for callers which only list each folder once, like the crawler, where caching 
+   * would never hit.
+   * 
+   * @param folder Folder to list
+   * @return Contents of the folder, or null if it could not be listed
+   */
+  public static File[] listFolder(File folder) {
+    List<File> result = new ArrayList<File>();
+    try {
+      DirectoryStream<Path> ds = Files.newDirectoryStream(folder.toPath());
+      try {
+        Iterator<Path> it = ds.iterator();
+        while (it.hasNext()) {
+          result.add(it.next().toFile());
+        }
+      } finally {
+        ds.close();
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      return null;
+    }
+    
+    return result.toArray(new File[result.size()]);
+  }
+  
   public static void purgeContentsFromCache(File folder) {
     fileContentsCache.remove(folder);
   }
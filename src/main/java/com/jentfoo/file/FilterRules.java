@@ -0,0 +1,311 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.threadly.util.Clock;
+
+/**
+ * A set of include and exclude rules compiled into a single filter.  All name patterns of the
+ * same kind are combined into one {@link NameMatcher}, size limits into a single range, and age
+ * limits into a single range of modification times, so checking an entry costs about the same
+ * no matter how many rules there are.
+ * 
+ * Rules are one per line, starting with "exclude" or "include":
+ * <ul>
+ * <li>{@code exclude hidden} - Names starting with a "."
+ * <li>{@code exclude glob:*.tmp}, {@code exclude regex:^~\$}, {@code exclude substring:sample}
+ *     - Names matching the pattern, as matched by {@link NameMatcher} (a pattern without a prefix
+ *     is a substring)
+ * <li>{@code exclude size>1G}, {@code exclude size<1K} - Files larger or smaller than a size, with
+ *     an optional K, M, G or T suffix
+ * <li>{@code exclude age>365d}, {@code exclude age<1h} - Files last modified longer ago, or more
+ *     recently, than an age with a s, m, h, d or w suffix
+ * <li>{@code include glob:*.jpg} (or any other name pattern) - Once there is an include rule,
+ *     only files matching an include rule are crawled.  Hidden, size and age rules can only
+ *     be used to exclude.
+ * </ul>
+ * Blank lines and lines starting with "#" are ignored.
+ * 
+ * Name and hidden rules apply to directories as well, and excluding a directory prunes
+ * everything within it without it ever being listed.  Size, age and include rules only
+ * apply to files.  Only the name of an entry is matched, never the rest of its path.
+ * 
+ * When crawling, register {@link #getNameFilter()} and {@link #getAttributesFilter()} rather
+ * than the rules themselves.  The crawler checks plain filters before reading an entry's
+ * attributes, so entries excluded by name never cost a stat.
+ */
+public class FilterRules implements FileAttributesFilterInterface {
+  public static final String EXCLUDE = "exclude";
+  public static final String INCLUDE = "include";
+  private static final String HIDDEN_RULE = "hidden";
+  private static final String SIZE_RULE = "size";
+  private static final String AGE_RULE = "age";
+  
+  private final boolean excludeHidden;
+  private final NameMatcher excludedNames;
+  private final NameMatcher includedNames;
+  private final long minSize;
+  private final long maxSize;
+  private final long minModifiedTime;
+  private final long maxModifiedTime;
+  
+  private FilterRules(boolean excludeHidden, NameMatcher excludedNames, NameMatcher includedNames,
+                      long minSize, long maxSize, long minModifiedTime, long maxModifiedTime) {
+    this.excludeHidden = excludeHidden;
+    this.excludedNames = excludedNames;
+    this.includedNames = includedNames;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.minModifiedTime = minModifiedTime;
+    this.maxModifiedTime = maxModifiedTime;
+  }
+  
+  /**
+   * Loads rules from a file.  Ages are relative to when the file is loaded.
+   * 
+   * @param rulesFile File to read rules from
+   * @return Compiled rules
+   * @throws IOException Thrown if the file could not be read
+   */
+  public static FilterRules load(File rulesFile) throws IOException {
+    return parse(Files.readAllLines(rulesFile.toPath(), StandardCharsets.UTF_8),
+                 Clock.accurateTimeMillis());
+  }
+  
+  /**
+   * Compiles a list of rules.
+   * 
+   * @param rules Rules, in the same format as lines of a rules file
+   * @param now Time in milliseconds ages are relative to
+   * @return Compiled rules
+   */
+  public static FilterRules parse(List<String> rules, long now) {
+    boolean excludeHidden = false;
+    List<String> excludedSubstrings = new ArrayList<String>();
+    List<String> excludedGlobs = new ArrayList<String>();
+    List<String> excludedRegexes = new ArrayList<String>();
+    List<String> includedSubstrings = new ArrayList<String>();
+    List<String> includedGlobs = new ArrayList<String>();
+    List<String> includedRegexes = new ArrayList<String>();
+    long minSize = 0;
+    long maxSize = Long.MAX_VALUE;
+    long minModifiedTime = Long.MIN_VALUE;
+    long maxModifiedTime = Long.MAX_VALUE;
+    int lineNumber = 0;
+    Iterator<String> it = rules.iterator();
+    while (it.hasNext()) {
+      lineNumber++;
+      String line = it.next().trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int delim = line.indexOf(' ');
+      String action = delim < 0 ? line : line.substring(0, delim);
+      String rule = delim < 0 ? "" : line.substring(delim + 1).trim();
+      boolean exclude = EXCLUDE.equals(action);
+      if ((! exclude && ! INCLUDE.equals(action)) || rule.isEmpty() || 
+          (! exclude && isExcludeOnlyRule(rule))) {
+        throw new IllegalArgumentException("Invalid rule on line " + lineNumber + ": " + line);
+      }
+      
+      List<String> substrings = exclude ? excludedSubstrings : includedSubstrings;
+      List<String> globs = exclude ? excludedGlobs : includedGlobs;
+      List<String> regexes = exclude ? excludedRegexes : includedRegexes;
+      try {
+        if (rule.startsWith(NameMatcher.GLOB_PREFIX)) {
+          globs.add(rule.substring(NameMatcher.GLOB_PREFIX.length()));
+        } else if (rule.startsWith(NameMatcher.REGEX_PREFIX)) {
+          regexes.add(rule.substring(NameMatcher.REGEX_PREFIX.length()));
+        } else if (rule.startsWith(NameMatcher.SUBSTRING_PREFIX)) {
+          substrings.add(rule.substring(NameMatcher.SUBSTRING_PREFIX.length()));
+        } else if (rule.equals(HIDDEN_RULE)) {
+          excludeHidden = true;
+        } else if (rule.startsWith(SIZE_RULE + '>')) {
+          maxSize = Math.min(maxSize, parseSize(rule.substring(SIZE_RULE.length() + 1)));
+        } else if (rule.startsWith(SIZE_RULE + '<')) {
+          minSize = Math.max(minSize, parseSize(rule.substring(SIZE_RULE.length() + 1)));
+        } else if (rule.startsWith(AGE_RULE + '>')) {
+          minModifiedTime = Math.max(minModifiedTime, 
+                                     now - parseAge(rule.substring(AGE_RULE.length() + 1)));
+        } else if (rule.startsWith(AGE_RULE + '<')) {
+          maxModifiedTime = Math.min(maxModifiedTime, 
+                                     now - parseAge(rule.substring(AGE_RULE.length() + 1)));
+        } else {
+          substrings.add(rule);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid number on line " + lineNumber + ": " + line, e);
+      }
+    }
+    
+    return new FilterRules(excludeHidden,
+                           makeMatcher(excludedSubstrings, excludedGlobs, excludedRegexes),
+                           makeMatcher(includedSubstrings, includedGlobs, includedRegexes),
+                           minSize, maxSize, minModifiedTime, maxModifiedTime);
+  }
+  
+  /**
+   * Checks if a rule is one of the hidden, size or age rules, which can only exclude.
+   */
+  private static boolean isExcludeOnlyRule(String rule) {
+    return rule.equals(HIDDEN_RULE) || 
+             rule.startsWith(SIZE_RULE + '>') || rule.startsWith(SIZE_RULE + '<') || 
+             rule.startsWith(AGE_RULE + '>') || rule.startsWith(AGE_RULE + '<');
+  }
+  
+  private static NameMatcher makeMatcher(List<String> substrings,
+                                         List<String> globs, List<String> regexes) {
+    if (substrings.isEmpty() && globs.isEmpty() && regexes.isEmpty()) {
+      return null;
+    }
+    
+    return new NameMatcher(substrings, globs, regexes);
+  }
+  
+  private static long parseSize(String size) {
+    if (size.isEmpty()) {
+      throw new NumberFormatException("Missing size");
+    }
+    long multiplier;
+    switch (Character.toUpperCase(size.charAt(size.length() - 1))) {
+      case 'K':
+        multiplier = 1024L;
+        break;
+      case 'M':
+        multiplier = 1024L * 1024;
+        break;
+      case 'G':
+        multiplier = 1024L * 1024 * 1024;
+        break;
+      case 'T':
+        multiplier = 1024L * 1024 * 1024 * 1024;
+        break;
+      default:
+        return Long.parseLong(size);
+    }
+    
+    return Long.parseLong(size.substring(0, size.length() - 1)) * multiplier;
+  }
+  
+  private static long parseAge(String age) {
+    if (age.isEmpty()) {
+      throw new NumberFormatException("Missing age");
+    }
+    long multiplier;
+    switch (age.charAt(age.length() - 1)) {
+      case 's':
+        multiplier = 1000L;
+        break;
+      case 'm':
+        multiplier = 1000L * 60;
+        break;
+      case 'h':
+        multiplier = 1000L * 60 * 60;
+        break;
+      case 'd':
+        multiplier = 1000L * 60 * 60 * 24;
+        break;
+      case 'w':
+        multiplier = 1000L * 60 * 60 * 24 * 7;
+        break;
+      default:
+        throw new NumberFormatException("Age must end with s, m, h, d or w: " + age);
+    }
+    
+    return Long.parseLong(age.substring(0, age.length() - 1)) * multiplier;
+  }
+  
+  /**
+   * Checks if any rule needs the attributes of an entry, rather than only its name.
+   */
+  private boolean needsAttributes() {
+    return includedNames != null || minSize > 0 || maxSize < Long.MAX_VALUE ||
+             minModifiedTime > Long.MIN_VALUE || maxModifiedTime < Long.MAX_VALUE;
+  }
+  
+  /**
+   * Returns a filter for only the hidden and name exclude rules, which never needs an entry's 
+   * attributes.
+   * 
+   * @return Filter checking names only
+   */
+  public FileFilterInterface getNameFilter() {
+    return new FileFilterInterface() {
+      @Override
+      public boolean shouldExclude(File file) {
+        return isExcludedByName(file);
+      }
+    };
+  }
+  
+  /**
+   * Returns a filter for only the size, age and include rules, which are checked with the 
+   * attributes the crawler already read.
+   * 
+   * @return Filter checking attributes only, or null if there are no such rules
+   */
+  public FileAttributesFilterInterface getAttributesFilter() {
+    if (! needsAttributes()) {
+      return null;
+    }
+    
+    return new FileAttributesFilterInterface() {
+      @Override
+      public boolean shouldExclude(File file) {
+        return isExcludedByAttributes(file);
+      }
+      
+      @Override
+      public boolean shouldExclude(File file, FileAttributes attributes) {
+        return isExcludedByAttributes(file, attributes);
+      }
+    };
+  }
+  
+  @Override
+  public boolean shouldExclude(File file) {
+    return isExcludedByName(file) || (needsAttributes() && isExcludedByAttributes(file));
+  }
+  
+  @Override
+  public boolean shouldExclude(File file, FileAttributes attributes) {
+    return isExcludedByName(file) || isExcludedByAttributes(file, attributes);
+  }
+  
+  private boolean isExcludedByName(File file) {
+    return (excludeHidden && HiddenFileFilter.isHidden(file)) ||
+             (excludedNames != null && excludedNames.matches(file));
+  }
+  
+  private boolean isExcludedByAttributes(File file) {
+    try {
+      return isExcludedByAttributes(file, FileAttributes.read(file.toPath(), true));
+    } catch (IOException e) {
+      return false; // will fail again when inspected
+    }
+  }
+  
+  private boolean isExcludedByAttributes(File file, FileAttributes attributes) {
+    if (attributes.isDirectory()) {
+      return false; // only names prune directories
+    }
+    long size = attributes.size();
+    if (size < minSize || size > maxSize) {
+      return true;
+    }
+    if (minModifiedTime > Long.MIN_VALUE || maxModifiedTime < Long.MAX_VALUE) {
+      long modifiedTime = attributes.lastModifiedTime().toMillis();
+      if (modifiedTime < minModifiedTime || modifiedTime > maxModifiedTime) {
+        return true;
+      }
+    }
+    
+    return includedNames != null && ! includedNames.matches(file);
+  }
+}
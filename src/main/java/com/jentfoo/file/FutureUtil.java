@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import org.threadly.util.Clock;
 import org.threadly.util.ExceptionUtils;
 
 public class FutureUtil {
@@ -40,4 +41,48 @@ public class FutureUtil {
       }
     }
   }
+  
+  /**
+   * Blocks until the submission future has completed, and all units submitted to the 
+   * tracker have completed.  Progress is logged as units complete, but since more units 
+   * may be submitted while this is blocking the percentage is only of units known so far.
+   * 
+   * @param submissionFuture Future which completes once no more units will be submitted
+   * @param tracker Tracker the units are submitted to
+   */
+  public static void blockTillAllDone(Future<?> submissionFuture, WorkUnitTracker tracker) {
+    int lastReportedDonePercent = 0;
+    long lastReportTime = 0;
+    try {
+      while (true) {
+        boolean submissionDone = submissionFuture.isDone();
+        long submittedCount = tracker.getSubmittedCount();
+        long completedCount = tracker.getCompletedCount();
+        if (submissionDone && completedCount == submittedCount) {
+          break;
+        }
+        
+        // we take * 10 and / 10 so we can get one additional decimal of accuracy
+        int donePercent = (int)Math.round(((double)completedCount / submittedCount) * 100 * 10);
+        // while still crawling the percent moves around a lot, so only report once a second
+        if (donePercent != lastReportedDonePercent && 
+            (submissionDone || Clock.accurateForwardProgressingMillis() - lastReportTime >= 1000)) {
+          lastReportedDonePercent = donePercent;
+          lastReportTime = Clock.lastKnownForwardProgressingMillis();
+          System.out.println("Progress: " + (donePercent / 10.) + "% (" + 
+                               completedCount + " of " + submittedCount + " work units" + 
+                               (submissionDone ? ")" : ", still crawling)"));
+        }
+        tracker.awaitCompletion(1000);
+      }
+      
+      // rethrow any failure from submission
+      submissionFuture.get();
+    } catch (InterruptedException e) {
+      ExceptionUtils.handleException(e);
+      return; // let thread exit
+    } catch (ExecutionException e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
 }
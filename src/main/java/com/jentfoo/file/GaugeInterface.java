@@ -0,0 +1,14 @@
+package com.jentfoo.file;
+
+/**
+ * Provides a value which is read each time metrics are reported, for state which already 
+ * exists elsewhere (like a queue size) rather than being counted as it changes.
+ */
+public interface GaugeInterface {
+  /**
+   * Returns the current value.  This may be called from any thread.
+   * 
+   * @return Current value of the gauge
+   */
+  public long getValue();
+}
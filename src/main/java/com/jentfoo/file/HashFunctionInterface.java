@@ -0,0 +1,26 @@
+package com.jentfoo.file;
+
+public interface HashFunctionInterface {
+  /**
+   * Returns the name of this hash function.  Digests with the same name 
+   * must always be comparable.
+   * 
+   * @return Name of the hash function
+   */
+  public String getName();
+  
+  /**
+   * Returns the length in bytes of the digests this function produces.
+   * 
+   * @return Digest length in bytes
+   */
+  public int getDigestLength();
+  
+  /**
+   * Constructs a new hasher for this function.  Hashers are not thread 
+   * safe, but are intended to be reused.
+   * 
+   * @return A new hasher
+   */
+  public HasherInterface makeHasher();
+}
@@ -0,0 +1,25 @@
+package com.jentfoo.file;
+
+import java.security.NoSuchAlgorithmException;
+
+public class HashFunctions {
+  /**
+   * Constructs a hash function by name.  The name can either be "murmur3-128" for the fast 
+   * non-cryptographic hash, or any {@link java.security.MessageDigest} algorithm name 
+   * (for example "SHA-256").
+   * 
+   * @param name Name of the hash function
+   * @return A new hash function
+   */
+  public static HashFunctionInterface makeHashFunction(String name) {
+    if (Murmur3HashFunction.NAME.equalsIgnoreCase(name)) {
+      return new Murmur3HashFunction();
+    }
+    
+    try {
+      return new MessageDigestHashFunction(name);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Unknown hash function: " + name, e);
+    }
+  }
+}
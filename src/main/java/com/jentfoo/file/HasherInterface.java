@@ -0,0 +1,22 @@
+package com.jentfoo.file;
+
+/**
+ * Accumulates the state of a single hash as content is provided through 
+ * {@link #handleContent(java.nio.ByteBuffer)}.  Implementations are not 
+ * thread safe, but can be reused once {@link #finish()} or {@link #reset()} 
+ * has been called.
+ */
+public interface HasherInterface extends ContentHandlerInterface {
+  /**
+   * Completes the hash for all content provided since the last reset.  The 
+   * hasher is reset by this call.
+   * 
+   * @return Digest of the provided content
+   */
+  public DigestResult finish();
+  
+  /**
+   * Discards any content provided since the last reset.
+   */
+  public void reset();
+}
@@ -2,25 +2,33 @@ package com.jentfoo.file;
 
 import java.io.File;
 
+/**
+ * Excludes files and folders whose name starts with a ".".  Only the name is checked, since
+ * the crawler never lists an excluded folder, so anything inside a hidden folder is never
+ * offered to the filter in the first place.
+ */
 public class HiddenFileFilter implements FileFilterInterface {
-  private static final String HIDDEN_STR = "/.";
-  
   @Override
   public boolean shouldExclude(File file) {
+    return isHidden(file);
+  }
+  
+  /**
+   * Checks if the name of a file starts with a ".", reading the name directly out of the
+   * file's path.
+   * 
+   * @param file File to check
+   * @return true if the file is hidden
+   */
+  public static boolean isHidden(File file) {
     String path = file.getPath();
-    boolean isHidden = false;
-    int hiddenIndex = -1;
-    do {
-      hiddenIndex = path.indexOf(HIDDEN_STR, hiddenIndex + 1);
-      if (hiddenIndex > 0 && hiddenIndex + HIDDEN_STR.length() < path.length()) {
-        char nextChar = path.charAt(hiddenIndex + HIDDEN_STR.length());
-        if (nextChar != '/' && nextChar != '.') {
-          isHidden = true;
-          break;
-        }
-      }
-    } while (hiddenIndex > 0);
+    int nameStart = path.lastIndexOf(File.separatorChar) + 1;
+    if (nameStart >= path.length() || path.charAt(nameStart) != '.') {
+      return false;
+    }
     
-    return isHidden;
+    // "." and ".." are references to directories, not hidden names
+    int nameLength = path.length() - nameStart;
+    return ! (nameLength == 1 || (nameLength == 2 && path.charAt(nameStart + 1) == '.'));
   }
 }
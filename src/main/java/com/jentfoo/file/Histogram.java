@@ -0,0 +1,88 @@
+package com.jentfoo.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records a distribution of values (typically durations in nanoseconds) without retaining
+ * the values themselves.  Values are counted in power of two buckets, so recording is a few
+ * atomic increments and memory use is fixed.  Percentiles are accurate to within a factor of
+ * two, which is enough to tell where time is going.
+ */
+public class Histogram {
+  private static final int BUCKET_COUNT = 64;
+  
+  private final AtomicLongArray buckets;
+  private final AtomicLong count;
+  private final AtomicLong sum;
+  private final AtomicLong max;
+  
+  public Histogram() {
+    buckets = new AtomicLongArray(BUCKET_COUNT);
+    count = new AtomicLong();
+    sum = new AtomicLong();
+    max = new AtomicLong();
+  }
+  
+  /**
+   * Records a value, negative values are recorded as 0.
+   * 
+   * @param value Value to record
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    // bucket i holds values from 2^i to 2^(i+1) - 1, with 0 also in the first bucket
+    buckets.incrementAndGet(value == 0 ? 0 : BUCKET_COUNT - 1 - Long.numberOfLeadingZeros(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax = max.get();
+    while (value > currentMax && ! max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+  
+  public long getCount() {
+    return count.get();
+  }
+  
+  public long getSum() {
+    return sum.get();
+  }
+  
+  public long getMax() {
+    return max.get();
+  }
+  
+  public long getMean() {
+    long count = this.count.get();
+    return count == 0 ? 0 : sum.get() / count;
+  }
+  
+  /**
+   * Returns an upper bound for the value at a percentile.  The result is the top of the
+   * bucket the percentile falls in, but never more than the max recorded value.
+   * 
+   * @param percentile Percentile from 0 to 100
+   * @return Value which at least the percentile of recorded values are at or below
+   */
+  public long getPercentile(double percentile) {
+    long count = this.count.get();
+    if (count == 0) {
+      return 0;
+    }
+    
+    long target = (long)Math.ceil(count * (percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= target) {
+        long bucketMax = i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        return Math.min(bucketMax, max.get());
+      }
+    }
+    
+    return max.get();
+  }
+}
@@ -0,0 +1,114 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes results as newline delimited JSON, one object per line, each with a "type" field.
+ */
+public class JsonReportSink extends AbstractReportSink {
+  private int hardLinkGroupCount;
+  private int folderGroupCount;
+  
+  public JsonReportSink(OutputStream out, boolean flushEachRecord) {
+    super(out, flushEachRecord);
+    
+    hardLinkGroupCount = 0;
+    folderGroupCount = 0;
+  }
+  
+  /**
+   * Appends a string as a quoted JSON string.
+   * 
+   * @param sb Builder to append to
+   * @param str String to quote and escape
+   * @return The provided builder
+   */
+  public static StringBuilder appendString(StringBuilder sb, String str) {
+    sb.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int)c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    
+    return sb.append('"');
+  }
+  
+  private static StringBuilder appendFiles(StringBuilder sb, List<File> files) {
+    sb.append('[');
+    Iterator<File> it = files.iterator();
+    while (it.hasNext()) {
+      appendString(sb, it.next().getPath());
+      if (it.hasNext()) {
+        sb.append(',');
+      }
+    }
+    
+    return sb.append(']');
+  }
+  
+  @Override
+  public synchronized void duplicateFiles(int groupId, List<File> files) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"duplicate\",\"group\":");
+    sb.append(groupId).append(",\"files\":");
+    appendFiles(sb, files).append("}\n");
+    write(sb);
+  }
+  
+  @Override
+  public synchronized void hardLinks(List<File> files) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"hard_links\",\"group\":");
+    sb.append(hardLinkGroupCount++).append(",\"files\":");
+    appendFiles(sb, files).append("}\n");
+    write(sb);
+  }
+  
+  @Override
+  public synchronized void identicalFolders(List<File> folders) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"identical_folders\",\"group\":");
+    sb.append(folderGroupCount++).append(",\"folders\":");
+    appendFiles(sb, folders).append("}\n");
+    write(sb);
+  }
+  
+  @Override
+  public synchronized void similarFolders(SimilarFolderFinder.FolderSimilarity similarity) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"similar_folder\",\"folder\":");
+    appendString(sb, similarity.getFolder().getPath()).append(",\"containingFolder\":");
+    appendString(sb, similarity.getContainingFolder().getPath())
+      .append(",\"containment\":").append(similarity.getContainment())
+      .append(",\"jaccard\":").append(similarity.getJaccard()).append("}\n");
+    write(sb);
+  }
+  
+  @Override
+  public synchronized void statistic(String name, long value) {
+    StringBuilder sb = new StringBuilder("{\"type\":\"statistic\",\"name\":");
+    appendString(sb, name).append(",\"value\":").append(value).append("}\n");
+    write(sb);
+  }
+}
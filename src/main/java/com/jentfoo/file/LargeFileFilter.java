@@ -2,7 +2,7 @@ package com.jentfoo.file;
 
 import java.io.File;
 
-public class LargeFileFilter implements FileFilterInterface {
+public class LargeFileFilter implements FileAttributesFilterInterface {
   private final long fileSizeLimit;
   
   public LargeFileFilter(long fileSizeLimit) {
@@ -13,4 +13,9 @@ public class LargeFileFilter implements FileFilterInterface {
   public boolean shouldExclude(File file) {
     return file.length() > fileSizeLimit;
   }
+  
+  @Override
+  public boolean shouldExclude(File file, FileAttributes attributes) {
+    return attributes.size() > fileSizeLimit;
+  }
 }
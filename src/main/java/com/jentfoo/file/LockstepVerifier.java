@@ -0,0 +1,225 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Splits a group of candidate duplicate files into groups of identical contents, by opening
+ * all the files at once and reading them block by block in lockstep.  As soon as the
+ * contents of a file diverge from the rest it is split into its own group, and once a file
+ * is alone in its group it is no longer read.  So most files which are not duplicates will
+ * only have their first block read, and there is no risk of a hash collision.
+ *
+ * Groups larger than the maximum open file count are verified in chunks, with the first file
+ * of the group opened along side each chunk.
+ */
+public class LockstepVerifier {
+  private static final int DEFAULT_BLOCK_SIZE = 1024 * 64;
+  private static final int DEFAULT_MAX_OPEN_FILES = 128;
+  private static final AtomicLong BYTES_COMPARED = Metrics.counter("lockstep.bytes");
+  
+  private final int blockSize;
+  private final int maxOpenFiles;
+  
+  public LockstepVerifier() {
+    this(DEFAULT_BLOCK_SIZE, DEFAULT_MAX_OPEN_FILES);
+  }
+  
+  /**
+   * Constructs a new verifier.  Each file being verified holds a buffer of the block size,
+   * so memory used is up to the block size times the max open files (per thread).
+   *
+   * @param blockSize Size of the blocks read from each file at a time
+   * @param maxOpenFiles Maximum files to have open at once, must be at least 2
+   */
+  public LockstepVerifier(int blockSize, int maxOpenFiles) {
+    if (maxOpenFiles < 2) {
+      throw new IllegalArgumentException("Must be able to open at least two files: " + maxOpenFiles);
+    }
+    
+    this.blockSize = blockSize;
+    this.maxOpenFiles = maxOpenFiles;
+  }
+  
+  /**
+   * Splits the provided files into groups of files with identical contents.  Files which
+   * are not identical to any other file (or could not be read) are returned in a group of
+   * their own.
+   *
+   * @param files Files to verify, expected to all be the same size
+   * @return Groups of files with identical contents
+   */
+  public List<List<File>> split(List<File> files) {
+    List<List<File>> result = new ArrayList<List<File>>();
+    List<File> remaining = files;
+    while (remaining.size() > maxOpenFiles) {
+      // verify the first file against the rest, a chunk at a time
+      File anchor = remaining.get(0);
+      List<File> anchorGroup = new ArrayList<File>();
+      anchorGroup.add(anchor);
+      List<File> unmatched = new ArrayList<File>();
+      for (int i = 1; i < remaining.size(); i += maxOpenFiles - 1) {
+        List<File> chunk = new ArrayList<File>(maxOpenFiles);
+        chunk.add(anchor);
+        chunk.addAll(remaining.subList(i, Math.min(remaining.size(), i + maxOpenFiles - 1)));
+        
+        Iterator<List<File>> it = lockstepSplit(chunk).iterator();
+        while (it.hasNext()) {
+          List<File> group = it.next();
+          if (group.remove(anchor)) {
+            anchorGroup.addAll(group);
+          } else {
+            unmatched.addAll(group);
+          }
+        }
+      }
+      result.add(anchorGroup);
+      remaining = unmatched;
+    }
+    if (! remaining.isEmpty()) {
+      result.addAll(lockstepSplit(remaining));
+    }
+    
+    return result;
+  }
+  
+  private List<List<File>> lockstepSplit(List<File> files) {
+    List<List<File>> result = new ArrayList<List<File>>();
+    List<List<OpenFile>> activeGroups = new ArrayList<List<OpenFile>>(1);
+    List<OpenFile> initialGroup = new ArrayList<OpenFile>(files.size());
+    try {
+      Iterator<File> it = files.iterator();
+      while (it.hasNext()) {
+        File f = it.next();
+        try {
+          initialGroup.add(new OpenFile(f, blockSize));
+        } catch (IOException e) {
+          handleReadException(e);
+          result.add(new ArrayList<File>(Collections.singletonList(f)));
+        }
+      }
+      activeGroups.add(initialGroup);
+      
+      while (! activeGroups.isEmpty()) {
+        List<List<OpenFile>> nextGroups = new ArrayList<List<OpenFile>>(activeGroups.size());
+        Iterator<List<OpenFile>> groupIt = activeGroups.iterator();
+        while (groupIt.hasNext()) {
+          List<OpenFile> group = groupIt.next();
+          boolean complete = true;
+          List<List<OpenFile>> blockGroups = new ArrayList<List<OpenFile>>(1);
+          Iterator<OpenFile> ofIt = group.iterator();
+          openFileLoop: while (ofIt.hasNext()) {
+            OpenFile of = ofIt.next();
+            try {
+              if (of.readBlock() == blockSize) {
+                complete = false;
+              }
+            } catch (IOException e) {
+              handleReadException(e);
+              of.close();
+              result.add(new ArrayList<File>(Collections.singletonList(of.file)));
+              continue;
+            }
+            
+            Iterator<List<OpenFile>> bgIt = blockGroups.iterator();
+            while (bgIt.hasNext()) {
+              List<OpenFile> blockGroup = bgIt.next();
+              if (blockGroup.get(0).buffer.equals(of.buffer)) {
+                blockGroup.add(of);
+                continue openFileLoop;
+              }
+            }
+            List<OpenFile> blockGroup = new ArrayList<OpenFile>(group.size());
+            blockGroup.add(of);
+            blockGroups.add(blockGroup);
+          }
+          
+          Iterator<List<OpenFile>> bgIt = blockGroups.iterator();
+          while (bgIt.hasNext()) {
+            List<OpenFile> blockGroup = bgIt.next();
+            if (complete || blockGroup.size() == 1) {
+              result.add(closeGroup(blockGroup));
+            } else {
+              nextGroups.add(blockGroup);
+            }
+          }
+        }
+        activeGroups = nextGroups;
+      }
+    } finally {
+      // only needed if we are exiting due to an unexpected error
+      Iterator<List<OpenFile>> it = activeGroups.iterator();
+      while (it.hasNext()) {
+        closeGroup(it.next());
+      }
+    }
+    
+    return result;
+  }
+  
+  private static List<File> closeGroup(List<OpenFile> group) {
+    List<File> result = new ArrayList<File>(group.size());
+    Iterator<OpenFile> it = group.iterator();
+    while (it.hasNext()) {
+      OpenFile of = it.next();
+      of.close();
+      result.add(of.file);
+    }
+    
+    return result;
+  }
+  
+  private static void handleReadException(IOException e) {
+    if (! (e instanceof NoSuchFileException)) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+  
+  private static class OpenFile {
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    
+    private OpenFile(File file, int blockSize) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      this.buffer = ByteBuffer.allocate(blockSize);
+    }
+    
+    /**
+     * Reads until the buffer is full, or the end of the file is reached.  The buffer is
+     * flipped so that it is ready to be compared.
+     *
+     * @return Number of bytes read into the buffer
+     */
+    private int readBlock() throws IOException {
+      buffer.clear();
+      while (buffer.hasRemaining() && channel.read(buffer) > -1) {
+        // keep reading
+      }
+      buffer.flip();
+      BYTES_COMPARED.addAndGet(buffer.remaining());
+      
+      return buffer.remaining();
+    }
+    
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        ExceptionUtils.handleException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.jentfoo.file;
+
+import java.util.Arrays;
+
+/**
+ * {@link CollisionTier} for primitive long keys, such as file sizes.  Nodes held back are
+ * kept in open addressed tables of primitive keys and ids, split into segments which each
+ * have their own lock.  A held back file costs about 24 bytes (a long and an int, at the
+ * maximum load factor), with no objects allocated for it.
+ *
+ * This is safe to be called in parallel, and a held back node will only ever be released
+ * once.
+ */
+public class LongCollisionTier {
+  private static final int SEGMENT_COUNT = 64; // must be a power of 2
+  private static final int INITIAL_SEGMENT_CAPACITY = 256; // must be a power of 2
+  private static final float MAX_LOAD_FACTOR = 0.5f;
+  private static final int EMPTY = PathTable.NO_NODE;
+  
+  private final Segment[] segments;
+  
+  public LongCollisionTier() {
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+  }
+  
+  /**
+   * Offers a {@link PathTable} node into the tier.  The result follows the same rules as
+   * {@link CollisionTier#offer(Object, int)}.
+   *
+   * @param key Key the node is grouped by
+   * @param nodeId Id of the node to be offered
+   * @return Ids of the nodes which should continue on to the next stage
+   */
+  public int[] offer(long key, int nodeId) {
+    int hash = hash(key);
+    Segment segment = segments[hash & (SEGMENT_COUNT - 1)];
+    int first;
+    synchronized (segment) {
+      first = segment.putOrCollide(key, hash >>> 6, nodeId);
+    }
+    
+    if (first == EMPTY) {
+      return CollisionTier.NO_NODES;
+    } else if (first != CollisionTier.COLLIDED) {
+      return new int[] { first, nodeId };
+    } else {
+      return new int[] { nodeId };
+    }
+  }
+  
+  /**
+   * Checks if any node has been offered with a key, so that offering another would collide.
+   *
+   * @param key Key to check
+   * @return true if the key has been offered before
+   */
+  public boolean contains(long key) {
+    int hash = hash(key);
+    Segment segment = segments[hash & (SEGMENT_COUNT - 1)];
+    synchronized (segment) {
+      return segment.get(key, hash >>> 6) != EMPTY;
+    }
+  }
+  
+  /**
+   * Returns how many nodes have never collided with another node.
+   *
+   * @return Number of nodes eliminated by this tier
+   */
+  public int getEliminatedCount() {
+    int result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        for (int value : segment.values) {
+          if (value != EMPTY && value != CollisionTier.COLLIDED) {
+            result++;
+          }
+        }
+      }
+    }
+    
+    return result;
+  }
+  
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+  
+  /**
+   * Open addressed table of keys and node ids, only accessed while holding this segment's
+   * lock.
+   */
+  private static class Segment {
+    private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+    private int[] values = makeValues(INITIAL_SEGMENT_CAPACITY);
+    private int size = 0;
+    
+    private int get(long key, int hash) {
+      int mask = values.length - 1;
+      int slot = hash & mask;
+      while (true) {
+        int value = values[slot];
+        if (value == EMPTY || keys[slot] == key) {
+          return value;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    
+    /**
+     * Stores the node if the key is new, otherwise marks the key as collided.
+     *
+     * @return {@link #EMPTY} if the key is new, otherwise the value the key had before
+     */
+    private int putOrCollide(long key, int hash, int nodeId) {
+      int mask = values.length - 1;
+      int slot = hash & mask;
+      while (true) {
+        int value = values[slot];
+        if (value == EMPTY) {
+          keys[slot] = key;
+          values[slot] = nodeId;
+          if (++size > values.length * MAX_LOAD_FACTOR) {
+            resize();
+          }
+          return EMPTY;
+        } else if (keys[slot] == key) {
+          values[slot] = CollisionTier.COLLIDED;
+          return value;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    
+    private void resize() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = makeValues(keys.length);
+      int mask = values.length - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] != EMPTY) {
+          int slot = (hash(oldKeys[i]) >>> 6) & mask;
+          while (values[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+    
+    private static int[] makeValues(int capacity) {
+      int[] result = new int[capacity];
+      Arrays.fill(result, EMPTY);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads large files by memory mapping them in windows, so their contents are never copied 
+ * out of the page cache.  Files smaller than the map threshold are read with a 
+ * {@link ChannelFileReader} instead, since the cost of setting up a mapping is not worth it 
+ * for them.
+ * 
+ * Mapped regions are released when they are garbage collected, so this is best used on 64 bit 
+ * JVM's where address space is not a concern.
+ */
+public class MappedFileReader implements FileReaderInterface {
+  private static final long MAP_WINDOW_SIZE = 1024L * 1024L * 64; // 64 MB
+  
+  private final long mapThreshold;
+  private final ChannelFileReader smallFileReader;
+  
+  public MappedFileReader(int blockSize, long mapThreshold) {
+    this.mapThreshold = mapThreshold;
+    this.smallFileReader = new ChannelFileReader(blockSize);
+  }
+  
+  @Override
+  public void read(File file, ContentHandlerInterface handler) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < mapThreshold) {
+        // most files take this path, so the channel is read rather than opening the file again
+        smallFileReader.read(channel, handler);
+        return;
+      }
+      
+      long position = 0;
+      while (position < size) {
+        long windowSize = Math.min(MAP_WINDOW_SIZE, size - position);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+        handler.handleContent(window);
+        position += windowSize;
+      }
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.jentfoo.file;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Hash function backed by a {@link MessageDigest} algorithm (for example SHA-256).
+ */
+public class MessageDigestHashFunction implements HashFunctionInterface {
+  private final String algorithm;
+  private final int digestLength;
+  
+  public MessageDigestHashFunction(String algorithm) throws NoSuchAlgorithmException {
+    // also verifies the algorithm is available
+    int digestLength = MessageDigest.getInstance(algorithm).getDigestLength();
+    
+    this.algorithm = algorithm;
+    this.digestLength = digestLength;
+  }
+  
+  @Override
+  public String getName() {
+    return algorithm;
+  }
+  
+  @Override
+  public int getDigestLength() {
+    return digestLength;
+  }
+  
+  @Override
+  public HasherInterface makeHasher() {
+    try {
+      return new MessageDigestHasher(MessageDigest.getInstance(algorithm));
+    } catch (NoSuchAlgorithmException e) {
+      // should not be possible since we verified at construction
+      throw ExceptionUtils.makeRuntime(e);
+    }
+  }
+  
+  private static class MessageDigestHasher implements HasherInterface {
+    private final MessageDigest md;
+    
+    private MessageDigestHasher(MessageDigest md) {
+      this.md = md;
+    }
+    
+    @Override
+    public void handleContent(ByteBuffer buffer) {
+      md.update(buffer.duplicate());
+    }
+    
+    @Override
+    public DigestResult finish() {
+      return DigestResult.fromBytes(md.digest());
+    }
+    
+    @Override
+    public void reset() {
+      md.reset();
+    }
+  }
+}
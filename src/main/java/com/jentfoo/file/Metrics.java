@@ -0,0 +1,150 @@
+package com.jentfoo.file;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of named counters, gauges and histograms shared by the whole process.  Metrics 
+ * are created the first time they are asked for, so callers should hold on to the returned 
+ * instance rather than looking it up for every update.
+ * 
+ * Names are dot separated, starting with the part of the pipeline they belong to (for 
+ * example "crawl.directoriesListed" or "hash.bytes").  Durations are recorded in 
+ * nanoseconds in histograms, and total stage times are counted in milliseconds.
+ */
+public class Metrics {
+  public static final String MBEAN_NAME = "com.jentfoo.file:type=Metrics";
+  
+  private static final ConcurrentMap<String, AtomicLong> counters;
+  private static final ConcurrentMap<String, GaugeInterface> gauges;
+  private static final ConcurrentMap<String, Histogram> histograms;
+  
+  static {
+    counters = new ConcurrentHashMap<String, AtomicLong>();
+    gauges = new ConcurrentHashMap<String, GaugeInterface>();
+    histograms = new ConcurrentHashMap<String, Histogram>();
+  }
+  
+  /**
+   * Returns the counter for a name, creating it if needed.
+   * 
+   * @param name Name of the counter
+   * @return Counter which can be updated from any thread
+   */
+  public static AtomicLong counter(String name) {
+    AtomicLong result = counters.get(name);
+    if (result == null) {
+      result = new AtomicLong();
+      AtomicLong existing = counters.putIfAbsent(name, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns the histogram for a name, creating it if needed.
+   * 
+   * @param name Name of the histogram
+   * @return Histogram which can be recorded to from any thread
+   */
+  public static Histogram histogram(String name) {
+    Histogram result = histograms.get(name);
+    if (result == null) {
+      result = new Histogram();
+      Histogram existing = histograms.putIfAbsent(name, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Registers a gauge, replacing any gauge already registered with the name.
+   * 
+   * @param name Name of the gauge
+   * @param gauge Gauge to read the value from
+   */
+  public static void registerGauge(String name, GaugeInterface gauge) {
+    gauges.put(name, gauge);
+  }
+  
+  /**
+   * Checks if a name belongs to a counter.  Counters are the only values which make sense to 
+   * report as a rate.
+   * 
+   * @param name Name from {@link #getValues()}
+   * @return true if the name is a counter
+   */
+  public static boolean isCounter(String name) {
+    return counters.containsKey(name);
+  }
+  
+  /**
+   * Returns the current value of every metric, sorted by name.  Histograms are summarized 
+   * as their name followed by ".count", ".mean", ".p50", ".p99" and ".max".
+   * 
+   * @return Map of metric names to values
+   */
+  public static SortedMap<String, Long> getValues() {
+    SortedMap<String, Long> result = new TreeMap<String, Long>();
+    Iterator<Entry<String, AtomicLong>> counterIt = counters.entrySet().iterator();
+    while (counterIt.hasNext()) {
+      Entry<String, AtomicLong> e = counterIt.next();
+      result.put(e.getKey(), e.getValue().get());
+    }
+    Iterator<Entry<String, GaugeInterface>> gaugeIt = gauges.entrySet().iterator();
+    while (gaugeIt.hasNext()) {
+      Entry<String, GaugeInterface> e = gaugeIt.next();
+      result.put(e.getKey(), e.getValue().getValue());
+    }
+    Iterator<Entry<String, Histogram>> histogramIt = histograms.entrySet().iterator();
+    while (histogramIt.hasNext()) {
+      Entry<String, Histogram> e = histogramIt.next();
+      Histogram h = e.getValue();
+      result.put(e.getKey() + ".count", h.getCount());
+      result.put(e.getKey() + ".mean", h.getMean());
+      result.put(e.getKey() + ".p50", h.getPercentile(50));
+      result.put(e.getKey() + ".p99", h.getPercentile(99));
+      result.put(e.getKey() + ".max", h.getMax());
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Registers an MBean under {@link #MBEAN_NAME} so that metrics can be watched live with 
+   * any JMX client (for example jconsole).
+   * 
+   * @throws JMException Thrown if the bean could not be registered
+   */
+  public static void registerMBean() throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(MBEAN_NAME);
+    if (! server.isRegistered(name)) {
+      server.registerMBean(new MetricsView(), name);
+    }
+  }
+  
+  private static class MetricsView implements MetricsMXBean {
+    @Override
+    public Map<String, Long> getValues() {
+      return Metrics.getValues();
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package com.jentfoo.file;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link Metrics}, registered by {@link Metrics#registerMBean()}.
+ */
+public interface MetricsMXBean {
+  /**
+   * Returns every counter, gauge and histogram summary by name, see 
+   * {@link Metrics#getValues()}.
+   * 
+   * @return Current metric values
+   */
+  public Map<String, Long> getValues();
+}
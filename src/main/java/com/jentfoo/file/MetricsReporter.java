@@ -0,0 +1,91 @@
+package com.jentfoo.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.threadly.concurrent.SubmitterScheduler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Periodically writes every metric as a single line of JSON, so that runs can be watched 
+ * while in progress and compared afterwards.  Besides the current values, each counter is 
+ * also reported as a per second rate over the time since the last report (for example 
+ * files or bytes hashed per second).
+ */
+public class MetricsReporter implements Runnable {
+  private final Writer out;
+  private final Map<String, Long> lastCounterValues;
+  private long lastReportTime;
+  
+  /**
+   * Constructs a new reporter.
+   * 
+   * @param out Stream to write reports to
+   */
+  public MetricsReporter(OutputStream out) {
+    this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    this.lastCounterValues = new HashMap<String, Long>();
+    this.lastReportTime = Clock.accurateForwardProgressingMillis();
+  }
+  
+  /**
+   * Schedules reports to be written at a fixed rate.  Reports stop once the scheduler is 
+   * shutdown.
+   * 
+   * @param scheduler Scheduler to run reports on
+   * @param periodMillis Time between reports in milliseconds
+   */
+  public void start(SubmitterScheduler scheduler, long periodMillis) {
+    scheduler.scheduleAtFixedRate(this, periodMillis, periodMillis);
+  }
+  
+  /**
+   * Writes a report immediately.
+   */
+  @Override
+  public synchronized void run() {
+    long now = Clock.accurateForwardProgressingMillis();
+    long elapsedMillis = Math.max(1, now - lastReportTime);
+    lastReportTime = now;
+    SortedMap<String, Long> values = Metrics.getValues();
+    
+    StringBuilder sb = new StringBuilder("{\"type\":\"metrics\",\"time\":");
+    sb.append(Clock.accurateTimeMillis()).append(",\"intervalMillis\":").append(elapsedMillis);
+    sb.append(",\"values\":{");
+    StringBuilder rates = new StringBuilder();
+    Iterator<Entry<String, Long>> it = values.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<String, Long> e = it.next();
+      JsonReportSink.appendString(sb, e.getKey()).append(':').append(e.getValue());
+      if (it.hasNext()) {
+        sb.append(',');
+      }
+      if (Metrics.isCounter(e.getKey())) {
+        Long lastValue = lastCounterValues.put(e.getKey(), e.getValue());
+        long delta = e.getValue() - (lastValue == null ? 0 : lastValue);
+        if (rates.length() > 0) {
+          rates.append(',');
+        }
+        JsonReportSink.appendString(rates, e.getKey())
+          .append(':').append(Math.round(delta * 1000.0 / elapsedMillis));
+      }
+    }
+    sb.append("},\"perSecond\":{").append(rates).append("}}\n");
+    
+    try {
+      out.write(sb.toString());
+      out.flush();
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.jentfoo.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure java implementation of the 128 bit x64 variant of MurmurHash3 (with a seed of zero).  
+ * This is not a cryptographic hash, but it is several times faster than one, while still 
+ * making accidental collisions extremely unlikely.
+ */
+public class Murmur3HashFunction implements HashFunctionInterface {
+  public static final String NAME = "murmur3-128";
+  
+  @Override
+  public String getName() {
+    return NAME;
+  }
+  
+  @Override
+  public int getDigestLength() {
+    return 16;
+  }
+  
+  @Override
+  public HasherInterface makeHasher() {
+    return new Murmur3Hasher();
+  }
+  
+  private static class Murmur3Hasher implements HasherInterface {
+    private static final int BLOCK_SIZE = 16;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    private final ByteBuffer partialBlock;
+    private long h1;
+    private long h2;
+    private long length;
+    
+    private Murmur3Hasher() {
+      partialBlock = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      reset();
+    }
+    
+    @Override
+    public void handleContent(ByteBuffer buffer) {
+      ByteBuffer bb = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      length += bb.remaining();
+      
+      if (partialBlock.position() > 0) {
+        while (partialBlock.hasRemaining() && bb.hasRemaining()) {
+          partialBlock.put(bb.get());
+        }
+        if (partialBlock.hasRemaining()) {
+          return;
+        }
+        partialBlock.flip();
+        mixBlock(partialBlock.getLong(), partialBlock.getLong());
+        partialBlock.clear();
+      }
+      
+      while (bb.remaining() >= BLOCK_SIZE) {
+        mixBlock(bb.getLong(), bb.getLong());
+      }
+      partialBlock.put(bb);
+    }
+    
+    private void mixBlock(long k1, long k2) {
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    
+    private static long mixK1(long k1) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      return k1 * C2;
+    }
+    
+    private static long mixK2(long k2) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      return k2 * C1;
+    }
+    
+    private static long fmix64(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+    
+    @Override
+    public DigestResult finish() {
+      int tailLength = partialBlock.position();
+      if (tailLength > 0) {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 0; i--) {
+          long b = partialBlock.get(i) & 0xFFL;
+          if (i >= 8) {
+            k2 |= b << ((i - 8) * 8);
+          } else {
+            k1 |= b << (i * 8);
+          }
+        }
+        if (tailLength > 8) {
+          h2 ^= mixK2(k2);
+        }
+        h1 ^= mixK1(k1);
+      }
+      
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix64(h1);
+      h2 = fmix64(h2);
+      h1 += h2;
+      h2 += h1;
+      
+      // byte order of the digest matches the little endian output of the reference implementation
+      DigestResult result = DigestResult.fromLongs(Long.reverseBytes(h1), Long.reverseBytes(h2));
+      reset();
+      return result;
+    }
+    
+    @Override
+    public void reset() {
+      partialBlock.clear();
+      h1 = 0;
+      h2 = 0;
+      length = 0;
+    }
+  }
+}
@@ -0,0 +1,382 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches file names against a set of patterns, all case insensitive.  Substring patterns are
+ * compiled into a single Aho-Corasick automaton, so a name is checked against every substring
+ * in one pass over its characters, no matter how many substrings there are.  Matching
+ * substrings does not allocate, the name is read directly out of the file's path.
+ * 
+ * Glob patterns (for example "*.part") must match the whole name, and regex patterns match if
+ * they are found anywhere in the name.  Globs which are only literal text with a "*" at the
+ * start, end or both (or neither) are added to the same automaton, matching as a suffix,
+ * prefix, substring or whole name.  The remaining globs and regexes are combined into one
+ * {@link Pattern}, which is only checked if the automaton did not match.
+ * 
+ * Instances are immutable, and safe to use from any number of threads.
+ */
+public class NameMatcher {
+  public static final String SUBSTRING_PREFIX = "substring:";
+  public static final String GLOB_PREFIX = "glob:";
+  public static final String REGEX_PREFIX = "regex:";
+  private static final int ROOT_STATE = 0;
+  private static final char[] NO_CHARS = new char[0];
+  private static final int[] NO_STATES = new int[0];
+  private static final String GLOB_SPECIAL_CHARS = "*?[]{},";
+  // how a pattern ending at a state matches, a state may have several
+  private static final byte MATCH_ANYWHERE = 1;
+  private static final byte MATCH_SUFFIX = 2;
+  private static final byte MATCH_PREFIX = 4;
+  private static final byte MATCH_EXACT = 8;
+  // kinds which also match at every state the pattern is a suffix of
+  private static final byte SUFFIX_KINDS = MATCH_ANYWHERE | MATCH_SUFFIX;
+  
+  // per state transitions, sorted by character for binary search
+  private final char[][] transitionChars;
+  private final int[][] transitionStates;
+  private final int[] failureStates;
+  private final byte[] matchKinds;
+  private final Pattern combinedPattern;
+  private final ThreadLocal<Matcher> matchers;
+  
+  /**
+   * Constructs a new matcher.
+   * 
+   * @param substrings Strings which match if found anywhere in the name
+   * @param globs Glob patterns which must match the whole name
+   * @param regexes Regular expressions which match if found anywhere in the name
+   */
+  public NameMatcher(Collection<String> substrings,
+                     Collection<String> globs, Collection<String> regexes) {
+    List<TrieNode> nodes = new ArrayList<TrieNode>();
+    nodes.add(new TrieNode(ROOT_STATE));
+    Iterator<String> it = substrings.iterator();
+    while (it.hasNext()) {
+      addPattern(nodes, it.next(), MATCH_ANYWHERE);
+    }
+    StringBuilder sb = new StringBuilder();
+    it = globs.iterator();
+    while (it.hasNext()) {
+      String glob = it.next();
+      if (! addLiteralGlob(nodes, glob)) {
+        appendAlternative(sb, "^" + globToRegex(glob) + "$");
+      }
+    }
+    transitionChars = new char[nodes.size()][];
+    transitionStates = new int[nodes.size()][];
+    failureStates = new int[nodes.size()];
+    matchKinds = new byte[nodes.size()];
+    compileAutomaton(nodes);
+    
+    it = regexes.iterator();
+    while (it.hasNext()) {
+      appendAlternative(sb, it.next());
+    }
+    if (sb.length() == 0) {
+      combinedPattern = null;
+      matchers = null;
+    } else {
+      combinedPattern = Pattern.compile(sb.toString(),
+                                        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+      matchers = new ThreadLocal<Matcher>() {
+        @Override
+        protected Matcher initialValue() {
+          return combinedPattern.matcher("");
+        }
+      };
+    }
+  }
+  
+  /**
+   * Returns a matcher with only substring patterns.
+   * 
+   * @param substrings Strings which match if found anywhere in the name
+   * @return Matcher for the substrings
+   */
+  public static NameMatcher forSubstrings(Collection<String> substrings) {
+    return new NameMatcher(substrings, Collections.<String>emptyList(),
+                           Collections.<String>emptyList());
+  }
+  
+  /**
+   * Loads patterns from a file, one per line.  Lines may be prefixed with "substring:",
+   * "glob:" or "regex:", lines without a prefix are substrings.  Blank lines and lines
+   * starting with "#" are ignored.
+   * 
+   * @param patternFile File to read patterns from
+   * @return Matcher for the patterns in the file
+   * @throws IOException Thrown if the file could not be read
+   */
+  public static NameMatcher load(File patternFile) throws IOException {
+    List<String> substrings = new ArrayList<String>();
+    List<String> globs = new ArrayList<String>();
+    List<String> regexes = new ArrayList<String>();
+    Iterator<String> it = Files.readAllLines(patternFile.toPath(), StandardCharsets.UTF_8).iterator();
+    while (it.hasNext()) {
+      String line = it.next().trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      } else if (line.startsWith(GLOB_PREFIX)) {
+        globs.add(line.substring(GLOB_PREFIX.length()));
+      } else if (line.startsWith(REGEX_PREFIX)) {
+        regexes.add(line.substring(REGEX_PREFIX.length()));
+      } else if (line.startsWith(SUBSTRING_PREFIX)) {
+        substrings.add(line.substring(SUBSTRING_PREFIX.length()));
+      } else {
+        substrings.add(line);
+      }
+    }
+    
+    return new NameMatcher(substrings, globs, regexes);
+  }
+  
+  /**
+   * Checks if the name of a file matches any pattern.
+   * 
+   * @param file File to check the name of
+   * @return true if any pattern matched
+   */
+  public boolean matches(File file) {
+    String path = file.getPath();
+    int nameStart = path.lastIndexOf(File.separatorChar) + 1;
+    if (matchesLiteral(path, nameStart)) {
+      return true;
+    } else if (combinedPattern == null) {
+      return false;
+    }
+    
+    Matcher m = matchers.get();
+    m.reset(file.getName());
+    try {
+      return m.find();
+    } finally {
+      m.reset("");  // don't hold on to the name
+    }
+  }
+  
+  private boolean matchesLiteral(String path, int start) {
+    int state = ROOT_STATE;
+    // true while the state is for every character of the name so far
+    boolean wholeName = true;
+    for (int i = start; i < path.length(); i++) {
+      char c = Character.toLowerCase(path.charAt(i));
+      int nextState;
+      while ((nextState = getTransition(state, c)) < 0 && state != ROOT_STATE) {
+        state = failureStates[state];
+        wholeName = false;
+      }
+      if (nextState < 0) {
+        wholeName = false;
+        continue;
+      }
+      state = nextState;
+      byte kinds = matchKinds[state];
+      if ((kinds & MATCH_ANYWHERE) != 0 || (wholeName && (kinds & MATCH_PREFIX) != 0)) {
+        return true;
+      }
+    }
+    
+    byte kinds = matchKinds[state];
+    return (kinds & MATCH_SUFFIX) != 0 || (wholeName && (kinds & MATCH_EXACT) != 0);
+  }
+  
+  private int getTransition(int state, char c) {
+    int index = Arrays.binarySearch(transitionChars[state], c);
+    return index < 0 ? -1 : transitionStates[state][index];
+  }
+  
+  private static void addPattern(List<TrieNode> nodes, String pattern, byte kind) {
+    if (pattern.isEmpty()) {
+      throw new IllegalArgumentException("Empty substrings would match everything");
+    }
+    TrieNode node = nodes.get(ROOT_STATE);
+    for (int i = 0; i < pattern.length(); i++) {
+      // lower cased the same way as names are while matching
+      char c = Character.toLowerCase(pattern.charAt(i));
+      TrieNode child = node.getChild(c);
+      if (child == null) {
+        child = new TrieNode(nodes.size());
+        nodes.add(child);
+        node.addChild(c, child);
+      }
+      node = child;
+    }
+    node.matchKinds |= kind;
+  }
+  
+  /**
+   * Adds a glob to the automaton if it is literal text, other than a "*" at the start or end.
+   * 
+   * @return false if the glob needs to be matched as a regex
+   */
+  private static boolean addLiteralGlob(List<TrieNode> nodes, String glob) {
+    boolean anyStart = glob.startsWith("*");
+    boolean anyEnd = glob.length() > 1 && glob.endsWith("*");
+    String literal = glob.substring(anyStart ? 1 : 0, glob.length() - (anyEnd ? 1 : 0));
+    if (literal.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (GLOB_SPECIAL_CHARS.indexOf(literal.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    
+    byte kind;
+    if (anyStart) {
+      kind = anyEnd ? MATCH_ANYWHERE : MATCH_SUFFIX;
+    } else {
+      kind = anyEnd ? MATCH_PREFIX : MATCH_EXACT;
+    }
+    addPattern(nodes, literal, kind);
+    
+    return true;
+  }
+  
+  /**
+   * Sets the failure link of every state to the state for its longest proper suffix,
+   * breadth first so that shorter suffixes are always done first.
+   */
+  private void compileAutomaton(List<TrieNode> nodes) {
+    Queue<TrieNode> queue = new LinkedList<TrieNode>();
+    queue.add(nodes.get(ROOT_STATE));
+    while (! queue.isEmpty()) {
+      TrieNode node = queue.remove();
+      transitionChars[node.id] = node.childCount == 0 ?
+                                   NO_CHARS : Arrays.copyOf(node.childChars, node.childCount);
+      transitionStates[node.id] = node.childCount == 0 ? NO_STATES : new int[node.childCount];
+      matchKinds[node.id] |= node.matchKinds;
+      for (int i = 0; i < node.childCount; i++) {
+        TrieNode child = node.children[i];
+        transitionStates[node.id][i] = child.id;
+        if (node.id == ROOT_STATE) {
+          failureStates[child.id] = ROOT_STATE;
+        } else {
+          TrieNode failure = nodes.get(failureStates[node.id]);
+          TrieNode failureChild;
+          while ((failureChild = failure.getChild(node.childChars[i])) == null &&
+                 failure.id != ROOT_STATE) {
+            failure = nodes.get(failureStates[failure.id]);
+          }
+          failureStates[child.id] = failureChild == null ? ROOT_STATE : failureChild.id;
+        }
+        // a state matches anywhere (or as a suffix) if any suffix of it does
+        matchKinds[child.id] = (byte)(child.matchKinds | 
+                                      (matchKinds[failureStates[child.id]] & SUFFIX_KINDS));
+        queue.add(child);
+      }
+    }
+  }
+  
+  private static void appendAlternative(StringBuilder sb, String regex) {
+    if (sb.length() > 0) {
+      sb.append('|');
+    }
+    sb.append("(?:").append(regex).append(')');
+  }
+  
+  /**
+   * Converts a glob into a regex.  Supports "*", "?", character classes in brackets, and
+   * alternatives in braces (for example "*.{avi,mkv}").
+   */
+  private static String globToRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    boolean inBraces = false;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      switch (c) {
+        case '*':
+          sb.append(".*");
+          break;
+        case '?':
+          sb.append('.');
+          break;
+        case '[':
+          int end = glob.indexOf(']', i + 1);
+          if (end < 0) {
+            throw new IllegalArgumentException("Unclosed [ in glob: " + glob);
+          }
+          String charClass = glob.substring(i + 1, end);
+          sb.append('[');
+          if (charClass.startsWith("!")) {
+            sb.append('^');
+            charClass = charClass.substring(1);
+          }
+          sb.append(charClass.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+          i = end;
+          break;
+        case '{':
+          inBraces = true;
+          sb.append("(?:");
+          break;
+        case '}':
+          inBraces = false;
+          sb.append(')');
+          break;
+        case ',':
+          sb.append(inBraces ? "|" : ",");
+          break;
+        default:
+          sb.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Node used only while building the automaton.
+   */
+  private static class TrieNode {
+    private final int id;
+    private char[] childChars;
+    private TrieNode[] children;
+    private int childCount;
+    private byte matchKinds;
+    
+    private TrieNode(int id) {
+      this.id = id;
+      this.childChars = NO_CHARS;
+      this.children = new TrieNode[0];
+      this.childCount = 0;
+      this.matchKinds = 0;
+    }
+    
+    private TrieNode getChild(char c) {
+      int index = Arrays.binarySearch(childChars, 0, childCount, c);
+      return index < 0 ? null : children[index];
+    }
+    
+    /**
+     * Adds a child, keeping children sorted by character.
+     */
+    private void addChild(char c, TrieNode child) {
+      if (childCount == childChars.length) {
+        int newLength = Math.max(2, childCount * 2);
+        childChars = Arrays.copyOf(childChars, newLength);
+        children = Arrays.copyOf(children, newLength);
+      }
+      int index = -(Arrays.binarySearch(childChars, 0, childCount, c) + 1);
+      System.arraycopy(childChars, index, childChars, index + 1, childCount - index);
+      System.arraycopy(children, index, children, index + 1, childCount - index);
+      childChars[index] = c;
+      children[index] = child;
+      childCount++;
+    }
+  }
+  
+}
@@ -0,0 +1,348 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dictionary of file system paths, stored as a tree of nodes which each only hold their own
+ * name and the id of their parent.  So a directory's path is stored once no matter how many
+ * files are within it, rather than being repeated in the path of every file.  Nodes are
+ * identified by an integer id, and provide parent and child lookups without going back to
+ * the file system.
+ * 
+ * Each top level node is the root of a file system (for example "/" or "C:\"), and is a child
+ * of {@link #ROOT}.  Nodes can be added from any thread, but children should only be read
+ * once adding has completed.
+ */
+public class PathTable {
+  public static final int ROOT = 0;
+  public static final int NO_NODE = -1;
+  private static final int FILE_NODE = -2; // first child value which marks a node as a file
+  private static final int NAME_CHUNK_BITS = 14;
+  private static final int NAME_CHUNK_SIZE = 1 << NAME_CHUNK_BITS;
+  private static final int SEGMENT_COUNT = 64; // must be a power of 2
+  private static final int INITIAL_SEGMENT_CAPACITY = 256; // must be a power of 2
+  private static final float MAX_LOAD_FACTOR = 0.5f;
+  
+  private final Segment[] segments;
+  private final AtomicInteger nodeCount;
+  private final AtomicReferenceArray<String[]> names;
+  private final ChunkedIntArray parents;
+  private final ChunkedIntArray firstChildren;
+  private final ChunkedIntArray nextSiblings;
+  private final BitSet listedDirectories;
+  
+  public PathTable() {
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+    nodeCount = new AtomicInteger();
+    names = new AtomicReferenceArray<String[]>(1 << (31 - NAME_CHUNK_BITS));
+    parents = new ChunkedIntArray();
+    firstChildren = new ChunkedIntArray();
+    nextSiblings = new ChunkedIntArray();
+    listedDirectories = new BitSet();
+    
+    newNode(NO_NODE, "", true); // ROOT
+  }
+  
+  /**
+   * Adds every component of a path to the table, and returns the id of the last one.  Files
+   * from {@link #getFile(int)} are returned without any lookup.
+   * 
+   * @param file File or directory to add, relative paths are resolved against the working directory
+   * @param directory true if the path is a directory
+   * @return Id of the node for the path
+   */
+  public int addPath(File file, boolean directory) {
+    if (file instanceof PathFile && ((PathFile)file).table == this) {
+      return ((PathFile)file).nodeId;
+    }
+    
+    Path path = file.getAbsoluteFile().toPath();
+    int nameCount = path.getNameCount();
+    int nodeId = addChild(ROOT, path.getRoot().toString(), nameCount > 0 || directory);
+    for (int i = 0; i < nameCount; i++) {
+      nodeId = addChild(nodeId, path.getName(i).toString(), i < nameCount - 1 || directory);
+    }
+    
+    return nodeId;
+  }
+  
+  /**
+   * Adds a node for a name within a directory node.  If the node already exists, its id is
+   * returned.
+   * 
+   * @param parentId Id of the parent directory node
+   * @param name Name of the file or directory within the parent
+   * @param directory true if the node is a directory
+   * @return Id of the node
+   */
+  public int addChild(int parentId, String name, boolean directory) {
+    Segment segment = segments[parentId & (SEGMENT_COUNT - 1)];
+    synchronized (segment) {
+      return segment.findOrInsert(parentId, name, directory);
+    }
+  }
+  
+  /**
+   * Looks up the id for a path without adding it.
+   * 
+   * @param file File to look up
+   * @return Id of the node, or {@link #NO_NODE} if the path is not in the table
+   */
+  public int getId(File file) {
+    if (file instanceof PathFile && ((PathFile)file).table == this) {
+      return ((PathFile)file).nodeId;
+    }
+    
+    Path path = file.getAbsoluteFile().toPath();
+    int nodeId = getChild(ROOT, path.getRoot().toString());
+    for (int i = 0; i < path.getNameCount() && nodeId != NO_NODE; i++) {
+      nodeId = getChild(nodeId, path.getName(i).toString());
+    }
+    
+    return nodeId;
+  }
+  
+  /**
+   * Looks up a child by name.
+   * 
+   * @param parentId Id of the parent directory node
+   * @param name Name within the parent
+   * @return Id of the child, or {@link #NO_NODE} if there is no child with the name
+   */
+  public int getChild(int parentId, String name) {
+    Segment segment = segments[parentId & (SEGMENT_COUNT - 1)];
+    synchronized (segment) {
+      return segment.find(parentId, name);
+    }
+  }
+  
+  /**
+   * Records that every child of a directory (which was not filtered out) has been added.
+   * Directories which are only in the table as the parent of another path are not listed.
+   * 
+   * @param nodeId Id of the directory node
+   */
+  public void markListed(int nodeId) {
+    synchronized (listedDirectories) {
+      listedDirectories.set(nodeId);
+    }
+  }
+  
+  /**
+   * Checks if a directory's children are complete, see {@link #markListed(int)}.
+   * 
+   * @param nodeId Id of the directory node
+   * @return true if all the directory's children are in the table
+   */
+  public boolean isListed(int nodeId) {
+    synchronized (listedDirectories) {
+      return listedDirectories.get(nodeId);
+    }
+  }
+  
+  public int getNodeCount() {
+    return nodeCount.get();
+  }
+  
+  public int getParent(int nodeId) {
+    return parents.get(nodeId);
+  }
+  
+  public String getName(int nodeId) {
+    return names.get(nodeId >>> NAME_CHUNK_BITS)[nodeId & (NAME_CHUNK_SIZE - 1)];
+  }
+  
+  public boolean isDirectory(int nodeId) {
+    return firstChildren.get(nodeId) != FILE_NODE;
+  }
+  
+  /**
+   * Returns the ids of all children of a node.
+   * 
+   * @param nodeId Id of the directory node
+   * @return Array of child ids, empty if there are none
+   */
+  public int[] getChildren(int nodeId) {
+    int count = 0;
+    int childId = firstChildren.get(nodeId);
+    while (childId >= 0) {
+      count++;
+      childId = nextSiblings.get(childId);
+    }
+    int[] result = new int[count];
+    childId = firstChildren.get(nodeId);
+    for (int i = 0; i < count; i++) {
+      result[i] = childId;
+      childId = nextSiblings.get(childId);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Builds the full path string of a node.
+   * 
+   * @param nodeId Id of the node
+   * @return Path of the node
+   */
+  public String getPath(int nodeId) {
+    int depth = 0;
+    for (int id = nodeId; id != ROOT; id = getParent(id)) {
+      depth++;
+    }
+    String[] pathNames = new String[depth];
+    for (int id = nodeId; id != ROOT; id = getParent(id)) {
+      pathNames[--depth] = getName(id);
+    }
+    
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < pathNames.length; i++) {
+      if (i > 1) {
+        sb.append(File.separatorChar);
+      }
+      sb.append(pathNames[i]);  // roots already end with a separator
+    }
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Constructs a {@link File} for a node.  The returned file remembers its id, so it can be
+   * passed back to this table without a lookup.
+   * 
+   * @param nodeId Id of the node
+   * @return File for the node
+   */
+  public File getFile(int nodeId) {
+    return new PathFile(this, nodeId, getPath(nodeId));
+  }
+  
+  /**
+   * Constructs a {@link File} for a node when the path is already known.
+   * 
+   * @param nodeId Id of the node
+   * @param path Path of the node
+   * @return File for the node
+   */
+  public File makeFile(int nodeId, String path) {
+    return new PathFile(this, nodeId, path);
+  }
+  
+  private int newNode(int parentId, String name, boolean directory) {
+    int nodeId = nodeCount.getAndIncrement();
+    int chunkIndex = nodeId >>> NAME_CHUNK_BITS;
+    String[] chunk = names.get(chunkIndex);
+    if (chunk == null) {
+      names.compareAndSet(chunkIndex, null, new String[NAME_CHUNK_SIZE]);
+      chunk = names.get(chunkIndex);
+    }
+    chunk[nodeId & (NAME_CHUNK_SIZE - 1)] = name;
+    parents.set(nodeId, parentId);
+    firstChildren.set(nodeId, directory ? NO_NODE : FILE_NODE);
+    if (parentId != NO_NODE) {
+      // parent is in the same segment, so the lock we hold protects its children
+      nextSiblings.set(nodeId, Math.max(NO_NODE, firstChildren.get(parentId)));
+      firstChildren.set(parentId, nodeId);
+    } else {
+      nextSiblings.set(nodeId, NO_NODE);
+    }
+    
+    return nodeId;
+  }
+  
+  private static int hash(int parentId, String name) {
+    int h = name.hashCode() * 31 + parentId;
+    return h ^ (h >>> 16);
+  }
+  
+  /**
+   * Open addressed table of node ids keyed by parent and name, only accessed while holding
+   * this segment's lock.  All children of a parent are in the same segment.
+   */
+  private class Segment {
+    private int[] slots = makeSlots(INITIAL_SEGMENT_CAPACITY);
+    private int size = 0;
+    
+    private int find(int parentId, String name) {
+      int mask = slots.length - 1;
+      int slot = hash(parentId, name) & mask;
+      while (true) {
+        int nodeId = slots[slot];
+        if (nodeId == NO_NODE) {
+          return NO_NODE;
+        } else if (parents.get(nodeId) == parentId && getName(nodeId).equals(name)) {
+          return nodeId;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    
+    private int findOrInsert(int parentId, String name, boolean directory) {
+      int mask = slots.length - 1;
+      int slot = hash(parentId, name) & mask;
+      while (true) {
+        int nodeId = slots[slot];
+        if (nodeId == NO_NODE) {
+          nodeId = newNode(parentId, name, directory);
+          slots[slot] = nodeId;
+          if (++size > slots.length * MAX_LOAD_FACTOR) {
+            resize();
+          }
+          return nodeId;
+        } else if (parents.get(nodeId) == parentId && getName(nodeId).equals(name)) {
+          if (directory && firstChildren.get(nodeId) == FILE_NODE) {
+            firstChildren.set(nodeId, NO_NODE);
+          }
+          return nodeId;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    
+    private void resize() {
+      int[] oldSlots = slots;
+      slots = makeSlots(oldSlots.length * 2);
+      int mask = slots.length - 1;
+      for (int nodeId : oldSlots) {
+        if (nodeId != NO_NODE) {
+          int slot = hash(parents.get(nodeId), getName(nodeId)) & mask;
+          while (slots[slot] != NO_NODE) {
+            slot = (slot + 1) & mask;
+          }
+          slots[slot] = nodeId;
+        }
+      }
+    }
+    
+    private int[] makeSlots(int capacity) {
+      int[] result = new int[capacity];
+      Arrays.fill(result, NO_NODE);
+      return result;
+    }
+  }
+  
+  /**
+   * File which remembers the node it was produced for.
+   */
+  private static class PathFile extends File {
+    private static final long serialVersionUID = 4409391366395146528L;
+    
+    private final transient PathTable table;
+    private final int nodeId;
+    
+    private PathFile(PathTable table, int nodeId, String path) {
+      super(path);
+      
+      this.table = table;
+      this.nodeId = nodeId;
+    }
+  }
+}
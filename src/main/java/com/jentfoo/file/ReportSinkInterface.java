@@ -0,0 +1,59 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives analysis results as soon as they are known, so that they can be written out 
+ * incrementally instead of being held until the end of a run.  Implementations must be 
+ * thread safe, since results are reported from the threads which produce them.
+ */
+public interface ReportSinkInterface {
+  /**
+   * Reports files which are confirmed to be duplicates.  The same group may be reported more 
+   * than once, as additional duplicates are found.  Only the first report for a group will 
+   * include at least two files, later reports include only the new files.
+   * 
+   * @param groupId Id which stays the same for every report of the group
+   * @param files Files newly found to be in the group
+   */
+  public void duplicateFiles(int groupId, List<File> files);
+  
+  /**
+   * Reports paths which are hard links to the same file.  These are not duplicates, and are 
+   * only read once, so they are reported separately from duplicate files.
+   * 
+   * @param files Paths which all link to the same file
+   */
+  public void hardLinks(List<File> files);
+  
+  /**
+   * Reports folders which have identical contents.
+   * 
+   * @param folders Folders with the same contents
+   */
+  public void identicalFolders(List<File> folders);
+  
+  /**
+   * Reports a folder whose files are mostly duplicated in another folder.
+   * 
+   * @param similarity Pair of folders and how similar they are
+   */
+  public void similarFolders(SimilarFolderFinder.FolderSimilarity similarity);
+  
+  /**
+   * Reports a summary value about the run.
+   * 
+   * @param name Name of the value
+   * @param value Value being reported
+   */
+  public void statistic(String name, long value);
+  
+  /**
+   * Writes out anything which has been buffered.
+   * 
+   * @throws IOException Thrown if the output could not be written
+   */
+  public void flush() throws IOException;
+}
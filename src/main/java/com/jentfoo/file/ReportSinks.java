@@ -0,0 +1,30 @@
+package com.jentfoo.file;
+
+import java.io.OutputStream;
+
+public class ReportSinks {
+  public static final String FORMAT_TEXT = "text";
+  public static final String FORMAT_CSV = "csv";
+  public static final String FORMAT_NDJSON = "ndjson";
+  
+  /**
+   * Constructs a report sink for the named format.
+   * 
+   * @param format One of "text", "csv" or "ndjson"
+   * @param out Stream to write the report to
+   * @param flushEachRecord true to flush the stream after every record
+   * @return A new report sink
+   */
+  public static AbstractReportSink makeSink(String format, OutputStream out, 
+                                            boolean flushEachRecord) {
+    if (FORMAT_TEXT.equalsIgnoreCase(format)) {
+      return new TextReportSink(out, flushEachRecord);
+    } else if (FORMAT_CSV.equalsIgnoreCase(format)) {
+      return new CsvReportSink(out, flushEachRecord);
+    } else if (FORMAT_NDJSON.equalsIgnoreCase(format)) {
+      return new JsonReportSink(out, flushEachRecord);
+    } else {
+      throw new IllegalArgumentException("Unknown report format: " + format);
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import org.threadly.concurrent.SubmitterScheduler;
+
+/**
+ * Finds folders whose files are mostly duplicated in another folder.  An inverted index is
+ * built from each duplicate group to the folders which contain it, then for each folder the
+ * folders sharing its groups are counted.  So work is proportional to the number of folder
+ * pairs which actually share files, rather than every pair of folders.
+ * 
+ * Similarity is reported as containment (the portion of the first folder's files which are
+ * found in the second folder), and Jaccard similarity (shared files over the files in either
+ * folder).  Only files directly within a folder are considered.  Groups which are in more
+ * than {@link #MAX_FOLDERS_PER_GROUP} folders (for example license files or empty files) are
+ * too common to say anything about a folder, so they are left out of the pair counting to
+ * keep it near linear.  These files still count towards the size of their folder.
+ */
+public class SimilarFolderFinder {
+  public static final double DEFAULT_MIN_CONTAINMENT = 0.9;
+  public static final int MAX_FOLDERS_PER_GROUP = 1000;
+  private static final int MIN_FOLDER_FILES = 2;
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int MIN_FOLDERS_PER_TASK = 256;
+  
+  private final PathTable pathTable;
+  private final DuplicateIndex duplicateIndex;
+  private final double minContainment;
+  
+  /**
+   * Constructs a new finder.
+   * 
+   * @param pathTable Table the duplicate index stores paths in
+   * @param duplicateIndex Index of confirmed duplicate groups
+   * @param minContainment Portion of a folder's files which must be in another folder to report the pair
+   */
+  public SimilarFolderFinder(PathTable pathTable, DuplicateIndex duplicateIndex,
+                             double minContainment) {
+    if (minContainment <= 0 || minContainment > 1) {
+      throw new IllegalArgumentException("Containment must be above 0 and at most 1: " + minContainment);
+    }
+    
+    this.pathTable = pathTable;
+    this.duplicateIndex = duplicateIndex;
+    this.minContainment = minContainment;
+  }
+  
+  /**
+   * Finds pairs of folders where the first folder is mostly contained within the second.  If
+   * both folders contain each other, the pair is only reported once, in the direction with
+   * the higher containment.  Folders which are
+   * identical trees according to the provided finder are not reported.
+   * 
+   * @param scheduler Scheduler to count folder pairs on in parallel
+   * @param exactFinder Finder which has already found identical folders
+   * @return Similar folder pairs, highest containment first
+   */
+  public List<FolderSimilarity> findSimilarFolders(SubmitterScheduler scheduler,
+                                                   final DuplicateFolderFinder exactFinder) {
+    final Map<Integer, int[]> groupFolders = new HashMap<Integer, int[]>();
+    Map<Integer, FolderEntry> folders = new HashMap<Integer, FolderEntry>();
+    int groupCount = duplicateIndex.getGroupCount();
+    for (int i = 0; i < groupCount; i++) {
+      if (duplicateIndex.getGroupSize(i) < 2) {
+        continue;
+      }
+      int[] members = duplicateIndex.getGroupMembers(i);
+      int[] parents = new int[members.length];
+      for (int j = 0; j < members.length; j++) {
+        parents[j] = pathTable.getParent(duplicateIndex.getPathId(members[j]));
+      }
+      parents = sortedUnique(parents);
+      if (parents.length < 2) {
+        continue; // only duplicated within one folder
+      }
+      for (int folder : parents) {
+        FolderEntry fe = folders.get(folder);
+        if (fe == null) {
+          fe = new FolderEntry(folder);
+          folders.put(folder, fe);
+        }
+        fe.addGroup(i);
+      }
+      if (parents.length <= MAX_FOLDERS_PER_GROUP) {
+        groupFolders.put(i, parents);
+      }
+    }
+    
+    final List<FolderEntry> folderList = new ArrayList<FolderEntry>(folders.values());
+    final Map<Integer, FolderEntry> folderMap = folders;
+    final Queue<FolderSimilarity> results = new ConcurrentLinkedQueue<FolderSimilarity>();
+    int taskCount = Math.max(1, Math.min(CPU_COUNT * 2, folderList.size() / MIN_FOLDERS_PER_TASK));
+    if (taskCount == 1) {
+      compareFolders(folderList, folderMap, groupFolders, exactFinder, results);
+    } else {
+      int foldersPerTask = folderList.size() / taskCount;
+      List<Future<?>> futures = new ArrayList<Future<?>>(taskCount);
+      for (int i = 0; i < taskCount; i++) {
+        int start = i * foldersPerTask;
+        int end = i == taskCount - 1 ? folderList.size() : start + foldersPerTask;
+        final List<FolderEntry> taskFolders = folderList.subList(start, end);
+        futures.add(scheduler.submit(new Runnable() {
+          @Override
+          public void run() {
+            compareFolders(taskFolders, folderMap, groupFolders, exactFinder, results);
+          }
+        }));
+      }
+      FutureUtil.blockTillAllDone(futures);
+    }
+    
+    List<FolderSimilarity> result = new ArrayList<FolderSimilarity>(results);
+    Collections.sort(result, new Comparator<FolderSimilarity>() {
+      @Override
+      public int compare(FolderSimilarity fs1, FolderSimilarity fs2) {
+        int result = Double.compare(fs2.containment, fs1.containment);
+        if (result == 0) {
+          result = Double.compare(fs2.jaccard, fs1.jaccard);
+        }
+        return result;
+      }
+    });
+    
+    return result;
+  }
+  
+  private void compareFolders(List<FolderEntry> toCompare, Map<Integer, FolderEntry> folders,
+                              Map<Integer, int[]> groupFolders, DuplicateFolderFinder exactFinder,
+                              Queue<FolderSimilarity> results) {
+    Map<Integer, int[]> sharedCounts = new HashMap<Integer, int[]>();
+    Iterator<FolderEntry> it = toCompare.iterator();
+    while (it.hasNext()) {
+      FolderEntry fe = it.next();
+      int fileCount = fe.getFileCount();
+      if (fileCount < MIN_FOLDER_FILES || fe.groupCount < fileCount * minContainment) {
+        continue; // not enough duplicated files to ever be reported
+      }
+      
+      sharedCounts.clear();
+      for (int i = 0; i < fe.groupCount; i++) {
+        int[] otherFolders = groupFolders.get(fe.groups[i]);
+        if (otherFolders == null) {
+          continue;
+        }
+        for (int otherFolder : otherFolders) {
+          if (otherFolder != fe.folder) {
+            int[] count = sharedCounts.get(otherFolder);
+            if (count == null) {
+              count = new int[1];
+              sharedCounts.put(otherFolder, count);
+            }
+            count[0]++;
+          }
+        }
+      }
+      
+      Iterator<Entry<Integer, int[]>> countIt = sharedCounts.entrySet().iterator();
+      while (countIt.hasNext()) {
+        Entry<Integer, int[]> e = countIt.next();
+        int shared = e.getValue()[0];
+        double containment = (double)shared / fileCount;
+        if (containment < minContainment) {
+          continue;
+        }
+        FolderEntry other = folders.get(e.getKey());
+        int otherFileCount = other.getFileCount();
+        double otherContainment = (double)shared / otherFileCount;
+        if (otherFileCount >= MIN_FOLDER_FILES && otherContainment >= minContainment &&
+            (otherContainment > containment ||
+               (otherContainment == containment && fe.folder > other.folder))) {
+          continue; // reported from the other folder
+        } else if (exactFinder.isSameContent(fe.folder, other.folder)) {
+          continue;
+        }
+        double jaccard = (double)shared / (fileCount + otherFileCount - shared);
+        results.add(new FolderSimilarity(pathTable.getFile(fe.folder),
+                                         pathTable.getFile(other.folder),
+                                         containment, jaccard));
+      }
+    }
+  }
+  
+  private static int[] sortedUnique(int[] values) {
+    Arrays.sort(values);
+    int count = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (i == 0 || values[i] != values[i - 1]) {
+        values[count++] = values[i];
+      }
+    }
+    
+    return Arrays.copyOf(values, count);
+  }
+  
+  /**
+   * Duplicate groups which have a file directly within a folder.
+   */
+  private class FolderEntry {
+    private final int folder;
+    private int[] groups;
+    private int groupCount;
+    private int fileCount;
+    
+    private FolderEntry(int folder) {
+      this.folder = folder;
+      this.groups = new int[4];
+      this.groupCount = 0;
+      this.fileCount = -1;
+    }
+    
+    private void addGroup(int group) {
+      if (groupCount == groups.length) {
+        groups = Arrays.copyOf(groups, groupCount * 2);
+      }
+      groups[groupCount++] = group;
+    }
+    
+    /**
+     * Counts the files directly within the folder.  This is done lazily since most folders
+     * never have enough duplicates to need it.
+     */
+    private synchronized int getFileCount() {
+      if (fileCount < 0) {
+        fileCount = 0;
+        for (int child : pathTable.getChildren(folder)) {
+          if (! pathTable.isDirectory(child)) {
+            fileCount++;
+          }
+        }
+      }
+      
+      return fileCount;
+    }
+  }
+  
+  /**
+   * A pair of folders where most of the first folder's files are also in the second.
+   */
+  public static class FolderSimilarity {
+    private final File folder;
+    private final File containingFolder;
+    private final double containment;
+    private final double jaccard;
+    
+    private FolderSimilarity(File folder, File containingFolder,
+                             double containment, double jaccard) {
+      this.folder = folder;
+      this.containingFolder = containingFolder;
+      this.containment = containment;
+      this.jaccard = jaccard;
+    }
+    
+    public File getFolder() {
+      return folder;
+    }
+    
+    public File getContainingFolder() {
+      return containingFolder;
+    }
+    
+    /**
+     * Returns the portion of the folder's files which are also in the containing folder.
+     * 
+     * @return Containment from 0 to 1
+     */
+    public double getContainment() {
+      return containment;
+    }
+    
+    /**
+     * Returns the shared files over the total distinct files of both folders.
+     * 
+     * @return Jaccard similarity from 0 to 1
+     */
+    public double getJaccard() {
+      return jaccard;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads files through a {@link FileInputStream} into a heap buffer which is reused per thread.
+ */
+public class StreamFileReader implements FileReaderInterface {
+  private final ThreadLocal<byte[]> buffers;
+  
+  public StreamFileReader(final int blockSize) {
+    buffers = new ThreadLocal<byte[]>() {
+      @Override
+      protected byte[] initialValue() {
+        return new byte[blockSize];
+      }
+    };
+  }
+  
+  @Override
+  public void read(File file, ContentHandlerInterface handler) throws IOException {
+    byte[] buffer = buffers.get();
+    InputStream in = new FileInputStream(file);
+    try {
+      int readCount;
+      while ((readCount = in.read(buffer)) > -1) {
+        handler.handleContent(ByteBuffer.wrap(buffer, 0, readCount));
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
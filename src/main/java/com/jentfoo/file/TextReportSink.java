@@ -0,0 +1,67 @@
+package com.jentfoo.file;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes results as human readable text, with a heading each time the type of result 
+ * changes.
+ */
+public class TextReportSink extends AbstractReportSink {
+  private String lastHeading;
+  
+  public TextReportSink(OutputStream out, boolean flushEachRecord) {
+    super(out, flushEachRecord);
+    
+    lastHeading = null;
+  }
+  
+  private void heading(String heading) {
+    if (! heading.equals(lastHeading)) {
+      if (lastHeading != null) {
+        write("\n");
+      }
+      write(heading);
+      write("\n");
+      lastHeading = heading;
+    }
+  }
+  
+  @Override
+  public synchronized void duplicateFiles(int groupId, List<File> files) {
+    heading("Duplicate files:");
+    write(groupId + "\t" + files + "\n");
+  }
+  
+  @Override
+  public synchronized void hardLinks(List<File> files) {
+    heading("Hard links to the same file (not duplicates):");
+    write(files + "\n");
+  }
+  
+  @Override
+  public synchronized void identicalFolders(List<File> folders) {
+    heading("Folders which contents are exactly equal:");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < folders.size(); i++) {
+      sb.append(folders.get(i)).append(i == folders.size() - 1 ? '\n' : '\t');
+    }
+    write(sb);
+  }
+  
+  @Override
+  public synchronized void similarFolders(SimilarFolderFinder.FolderSimilarity similarity) {
+    heading("Folders which are PARTIALLY duplicated (first folder is mostly duplicated by " + 
+              "second folder, containment and jaccard similarity follow):");
+    write(similarity.getFolder() + "\t" + similarity.getContainingFolder() + "\t" + 
+            Math.round(similarity.getContainment() * 100) + "%\t" + 
+            Math.round(similarity.getJaccard() * 100) + "%\n");
+  }
+  
+  @Override
+  public synchronized void statistic(String name, long value) {
+    heading("Statistics:");
+    write(name + ": " + value + "\n");
+  }
+}
@@ -0,0 +1,75 @@
+package com.jentfoo.file;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks work units as they are submitted and completed, without needing to hold on to 
+ * the units (or their futures).  The number of outstanding units is bounded, so that a 
+ * producer which gets ahead of the consumers will block in {@link #unitSubmitted()} until 
+ * units complete.
+ */
+public class WorkUnitTracker {
+  private final Semaphore availableSlots;
+  private final AtomicLong submittedCount;
+  private final AtomicLong completedCount;
+  
+  /**
+   * Constructs a new tracker.
+   * 
+   * @param maxOutstandingUnits Maximum units which can be submitted but not yet completed
+   */
+  public WorkUnitTracker(int maxOutstandingUnits) {
+    if (maxOutstandingUnits < 1) {
+      throw new IllegalArgumentException("Must allow at least one unit: " + maxOutstandingUnits);
+    }
+    
+    availableSlots = new Semaphore(maxOutstandingUnits);
+    submittedCount = new AtomicLong();
+    completedCount = new AtomicLong();
+  }
+  
+  /**
+   * Must be called before a unit is submitted for execution.  This will block if the 
+   * maximum number of units are already outstanding.
+   */
+  public void unitSubmitted() {
+    availableSlots.acquireUninterruptibly();
+    submittedCount.incrementAndGet();
+  }
+  
+  /**
+   * Must be called once a submitted unit has finished (even if it failed).
+   */
+  public void unitCompleted() {
+    completedCount.incrementAndGet();
+    availableSlots.release();
+    
+    synchronized (this) {
+      this.notifyAll();
+    }
+  }
+  
+  public long getSubmittedCount() {
+    return submittedCount.get();
+  }
+  
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+  
+  /**
+   * Blocks until another unit completes, or the timeout elapses.
+   * 
+   * @param timeoutMillis Maximum time to wait in milliseconds
+   * @throws InterruptedException Thrown if the thread is interrupted while waiting
+   */
+  public void awaitCompletion(long timeoutMillis) throws InterruptedException {
+    long startCompletedCount = completedCount.get();
+    synchronized (this) {
+      if (completedCount.get() == startCompletedCount) {
+        this.wait(timeoutMillis);
+      }
+    }
+  }
+}